@@ -0,0 +1,102 @@
+package com.example.pdfbackend;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.unit.DataSize;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Output phase of add-page-numbers on a "scanned" document (one incompressible image per page):
+// a full save rewrites every image stream, an incremental update only appends the page numbers.
+// The numbers are drawn in the per-invocation setup, so only the save itself is measured.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class IncrementalSaveBenchmark {
+
+    @Param({"20", "100"})
+    public int pages;
+
+    private Path dir;
+    private PdfSpool spool;
+    private PdfWorkers workers;
+    private PdfProcessingService service;
+    private PdfSource source;
+    private DocumentChain chain;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("save-bench");
+        spool = new PdfSpool(dir.toString(), DataSize.ofMegabytes(16), DataSize.ofMegabytes(512));
+        workers = new PdfWorkers(1);
+        AdmissionControl admission = new AdmissionControl(DataSize.ofMegabytes(256), 16, Duration.ofSeconds(20));
+        service = new PdfProcessingService(spool, workers, admission,
+                new PdfCompressor(spool, workers, admission, DataSize.ofMegabytes(128)),
+                new PdfSplitter(spool, workers, admission, 0),
+                new PdfMerger(spool, DataSize.ofMegabytes(16), DataSize.ofGigabytes(1), false, DataSize.ofBytes(0)),
+                new PdfStamper(),
+                false, 16, true, DataSize.ofBytes(0));
+
+        Path file = spool.newScratchFile("scanned-", ".pdf");
+        Random random = new Random(42);
+        try (PDDocument doc = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                BufferedImage scan = new BufferedImage(320, 320, BufferedImage.TYPE_INT_RGB);
+                for (int y = 0; y < scan.getHeight(); y++) {
+                    for (int x = 0; x < scan.getWidth(); x++) scan.setRGB(x, y, random.nextInt());
+                }
+                PDPage page = new PDPage(PDRectangle.A4);
+                doc.addPage(page);
+                try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                    cs.drawImage(LosslessFactory.createFromImage(doc, scan), 0, 0, 595, 842);
+                }
+            }
+            doc.save(file.toFile());
+        }
+        source = new PdfSource(file, "scanned.pdf", spool::memoryUsage);
+    }
+
+    @Setup(Level.Invocation)
+    public void stamp() throws Exception {
+        chain = DocumentChain.load(source, spool);
+        service.pageNumbersStep("bottomRight", "normal", 1, "xOfY").apply(chain);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        source.close();
+        workers.shutdown();
+        try (var files = Files.list(dir)) {
+            for (Path file : files.toList()) Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public void fullSave() throws IOException {
+        try (PdfOutput output = chain.toOutput(false)) {
+            output.writeTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    @Benchmark
+    public void incrementalSave() throws IOException {
+        try (PdfOutput output = chain.toOutput(true)) {
+            output.writeTo(OutputStream.nullOutputStream());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.pdfbackend;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Every operation end to end, the way a request runs it: load the upload, do the work, write
+// the result (into a null stream). On SyntheticPdfs documents of each size, text-only and
+// image-heavy, with the production settings. Throughput is operations per second;
+// build.gradle turns on the gc profiler, so each result also comes with the allocation rate
+// (gc.alloc.rate.norm = bytes allocated per operation).
+//
+// The whole matrix takes a while; pick a part of it with e.g.
+//   ./gradlew jmh -Pjmh.includes=OperationBenchmark.delete -Pjmh.pages=10,100 -Pjmh.content=text
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+public class OperationBenchmark {
+
+    @Param({"10", "100", "1000", "5000"})
+    public int pages;
+
+    @Param({"text", "images"})
+    public String content;
+
+    private Path dir;
+    private PdfSpool spool;
+    private PdfWorkers workers;
+    private PdfProcessingService service;
+    private PdfSource source;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("ops-bench");
+        spool = new PdfSpool(dir.toString(), DataSize.ofMegabytes(16), DataSize.ofMegabytes(512));
+        workers = new PdfWorkers(0);
+        AdmissionControl admission = new AdmissionControl(DataSize.ofMegabytes(256), 16, Duration.ofSeconds(20));
+        service = new PdfProcessingService(spool, workers, admission,
+                new PdfCompressor(spool, workers, admission, DataSize.ofMegabytes(128)),
+                new PdfSplitter(spool, workers, admission, 0),
+                new PdfMerger(spool, DataSize.ofMegabytes(16), DataSize.ofGigabytes(4), true, DataSize.ofMegabytes(16)),
+                new PdfStamper(),
+                true, 16, true, DataSize.ofMegabytes(1));
+        // Not closed at the end: closing a PdfSource deletes its file, and the fixture is kept
+        source = new PdfSource(SyntheticPdfs.get(content, pages), content + ".pdf", spool::memoryUsage);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        workers.shutdown();
+        try (var files = Files.list(dir)) {
+            for (Path file : files.toList()) Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public void nUpStandard() throws Exception {
+        write(service.generatePagesPerSheet(source, 4, "A4", "standard"));
+    }
+
+    @Benchmark
+    public void nUpFoldable() throws Exception {
+        write(service.generatePagesPerSheet(source, 4, "A4", "foldable"));
+    }
+
+    // The document twice over
+    @Benchmark
+    public void merge() throws Exception {
+        write(service.mergePdfs(List.of(source, source), true));
+    }
+
+    @Benchmark
+    public void delete() throws Exception {
+        write(service.deletePages(source, "even"));
+    }
+
+    @Benchmark
+    public void rearrange() throws Exception {
+        write(service.rearrangePages(source, "reverse"));
+    }
+
+    @Benchmark
+    public void pageNumbers() throws Exception {
+        write(service.addPageNumbers(source, "bottomRight", "normal", 1, "xOfY"));
+    }
+
+    @Benchmark
+    public void compress() throws Exception {
+        write(service.compressPdf(source, "medium"));
+    }
+
+    private static void write(PdfOutput output) throws IOException {
+        try (output) {
+            output.writeTo(OutputStream.nullOutputStream());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.pdfbackend;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Page access the way the operations used to do it (getPage(i) per page, which searches
+// the page tree every time) against one PageIndex walk + array lookups.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class PageIndexBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    public int pages;
+
+    private byte[] saved;
+    private PDDocument doc;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // Save and reload so the page tree is the one a parser builds, not PDFBox's in-memory one
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PDDocument generated = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                generated.addPage(new PDPage(PDRectangle.A4));
+            }
+            generated.save(out);
+        }
+        saved = out.toByteArray();
+    }
+
+    // PageIndex copies inherited attributes into every page, so after one run the tree would have
+    // nothing left to look up - both benchmarks get a freshly parsed document every time
+    @Setup(Level.Invocation)
+    public void load() throws IOException {
+        doc = PDDocument.load(saved);
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() throws IOException {
+        doc.close();
+    }
+
+    @Benchmark
+    public void pageTreeLookup(Blackhole bh) {
+        int count = doc.getNumberOfPages();
+        for (int i = 0; i < count; i++) {
+            PDPage page = doc.getPage(i);
+            bh.consume(page.getCropBox());
+        }
+    }
+
+    @Benchmark
+    public void pageIndex(Blackhole bh) {
+        PageIndex index = PageIndex.of(doc);
+        for (int i = 0; i < index.size(); i++) {
+            bh.consume(index.page(i));
+            bh.consume(index.cropBox(i));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.pdfbackend;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+// Generated input documents for the benchmarks, the same bytes on every run (fixed seeds):
+//   text    40 lines of Helvetica per page (standard font, not embedded) - a typical office document
+//   images  a 400x300 photo-like JPEG per page (a different one each time) plus a caption - a scan
+// Written once into java.io.tmpdir/pdf-jmh-fixtures and reused by later forks and runs; 5,000
+// image pages take about a minute to generate and come to ~165MB.
+final class SyntheticPdfs {
+
+    private static final String[] WORDS = {
+            "invoice", "quarterly", "report", "the", "of", "and", "page", "total", "amount", "customer",
+            "delivery", "contract", "section", "revenue", "summary", "table", "figure", "appendix"
+    };
+
+    private SyntheticPdfs() {
+    }
+
+    static Path get(String content, int pages) throws IOException {
+        Path dir = Path.of(System.getProperty("java.io.tmpdir"), "pdf-jmh-fixtures");
+        Path file = dir.resolve(content + "-" + pages + ".pdf");
+        if (Files.exists(file)) return file;
+
+        Files.createDirectories(dir);
+        // Another fork may be generating the same file: write aside, then move into place
+        Path partial = Files.createTempFile(dir, content + "-", ".partial");
+        try {
+            switch (content) {
+                case "text" -> writeText(partial, pages);
+                case "images" -> writeImages(partial, pages);
+                default -> throw new IllegalArgumentException("Unknown content: " + content);
+            }
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+        return file;
+    }
+
+    private static void writeText(Path file, int pages) throws IOException {
+        Random random = new Random(pages);
+        try (PDDocument doc = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                PDPage page = new PDPage(PDRectangle.A4);
+                doc.addPage(page);
+                try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                    cs.beginText();
+                    cs.setFont(PDType1Font.HELVETICA, 11);
+                    cs.setLeading(16);
+                    cs.newLineAtOffset(60, 780);
+                    for (int line = 0; line < 40; line++) {
+                        cs.showText(sentence(random));
+                        cs.newLine();
+                    }
+                    cs.endText();
+                }
+            }
+            doc.save(file.toFile());
+        }
+    }
+
+    private static void writeImages(Path file, int pages) throws IOException {
+        Random random = new Random(pages);
+        try (PDDocument doc = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                PDPage page = new PDPage(PDRectangle.A4);
+                doc.addPage(page);
+                PDImageXObject photo = JPEGFactory.createFromImage(doc, photo(random), 0.8f);
+                try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                    cs.drawImage(photo, 48, 300, 500, 375);
+                    cs.beginText();
+                    cs.setFont(PDType1Font.HELVETICA, 11);
+                    cs.newLineAtOffset(48, 280);
+                    cs.showText("Figure " + (i + 1) + ": " + sentence(random));
+                    cs.endText();
+                }
+            }
+            doc.save(file.toFile());
+        }
+    }
+
+    // Smooth gradients with some noise: compresses like a photo, not like random bytes
+    private static BufferedImage photo(Random random) {
+        BufferedImage image = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+        int r0 = random.nextInt(256), g0 = random.nextInt(256), b0 = random.nextInt(256);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int noise = random.nextInt(24);
+                int r = (r0 + x / 2 + noise) & 0xFF;
+                int g = (g0 + y / 2 + noise) & 0xFF;
+                int b = (b0 + (x + y) / 4 + noise) & 0xFF;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return image;
+    }
+
+    private static String sentence(Random random) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 80) {
+            if (!sb.isEmpty()) sb.append(' ');
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+}
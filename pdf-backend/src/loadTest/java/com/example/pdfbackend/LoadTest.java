@@ -0,0 +1,307 @@
+package com.example.pdfbackend;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.server.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+// End-to-end load test: boots the app in this JVM on a random port and drives it over HTTP, so
+// multipart parsing, Tomcat's threads, the rate limiter and admission control are all in the
+// numbers. A fixed number of clients send requests back to back, picked from a weighted mix.
+// Reports p50/p95/p99 latency per endpoint, throughput and peak heap (sampled every 50ms;
+// the clients are light next to the app).
+//
+// Run with ./gradlew loadTest, settings as -PloadTest.<name>=<value>:
+//   concurrency   parallel clients                          8
+//   warmup        not measured                              10s
+//   duration      measured                                  30s
+//   mix           endpoint:weight,...                       convert:3,merge:1,delete:3,add-page-numbers:3
+//   pages         pages of the generated upload (SyntheticPdfs)  20
+//   content       text or images                            text
+//   baseline      results to compare against                src/loadTest/baseline.json
+//   threshold     allowed regression                        0.2 (20%)
+//   saveBaseline  true: store this run as the new baseline
+// The result cache and request coalescing are off: every request sends the same upload, and
+// they would answer most of them without doing any work. The rate limiter stays on, with a
+// budget no run can use up.
+// A run fails (exit code 1) when p50/p95/p99 of an endpoint, the throughput or the peak heap
+// is worse than the baseline by more than the threshold. A baseline is only comparable with
+// runs on the same machine and settings.
+public final class LoadTest {
+
+    private static final Map<String, Map<String, String>> PARAMS = Map.of(
+            "convert", Map.of("pagesPerSheet", "4", "paperSize", "A4", "mode", "standard"),
+            "merge", Map.of(),
+            "delete", Map.of("pages", "even"),
+            "add-page-numbers", Map.of("position", "bottomRight", "margin", "normal", "startNumber", "1", "format", "xOfY"),
+            "rearrange", Map.of("order", "reverse"),
+            "compress", Map.of("level", "medium"));
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = Integer.parseInt(setting("concurrency", "8"));
+        Duration warmup = Duration.parse("PT" + setting("warmup", "10s"));
+        Duration duration = Duration.parse("PT" + setting("duration", "30s"));
+        Map<String, Integer> mix = parseMix(setting("mix", "convert:3,merge:1,delete:3,add-page-numbers:3"));
+        int pages = Integer.parseInt(setting("pages", "20"));
+        String content = setting("content", "text");
+        Path baselineFile = Path.of(setting("baseline", "src/loadTest/baseline.json"));
+        double threshold = Double.parseDouble(setting("threshold", "0.2"));
+
+        byte[] upload = Files.readAllBytes(SyntheticPdfs.get(content, pages));
+        // As arguments: they have to win over application.properties
+        ConfigurableApplicationContext app = new SpringApplicationBuilder(PdfBackendApplication.class).run(
+                "--server.port=0",
+                "--pdf.rate-limit.capacity=1000000000",
+                "--pdf.rate-limit.refill-per-minute=1000000000",
+                "--pdf.cache.enabled=false",
+                "--pdf.coalesce.enabled=false",
+                "--pdf.access-log.sample-rate=0",
+                "--logging.level.root=WARN");
+        int exitCode;
+        try {
+            int port = ((WebServerApplicationContext) app).getWebServer().getPort();
+            Map<String, Object> results = run(URI.create("http://localhost:" + port + "/"), upload, mix,
+                    concurrency, warmup, duration);
+            Map<String, Object> settings = new LinkedHashMap<>();
+            settings.put("concurrency", concurrency);
+            settings.put("duration", duration.toString());
+            settings.put("mix", mix);
+            settings.put("pages", pages);
+            settings.put("content", content);
+            results.put("settings", settings);
+            exitCode = report(results, baselineFile, threshold);
+        } finally {
+            app.close();
+        }
+        System.exit(exitCode);
+    }
+
+    private static String setting(String name, String fallback) {
+        return System.getProperty("loadTest." + name, fallback);
+    }
+
+    private static Map<String, Integer> parseMix(String spec) {
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.trim().split(":");
+            String endpoint = parts[0].trim();
+            if (!PARAMS.containsKey(endpoint)) {
+                throw new IllegalArgumentException("Unknown endpoint in loadTest.mix: " + endpoint + " (one of " + PARAMS.keySet() + ")");
+            }
+            mix.put(endpoint, parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1);
+        }
+        return mix;
+    }
+
+    // ===== DRIVING =====
+
+    private static Map<String, Object> run(URI base, byte[] upload, Map<String, Integer> mix, int concurrency,
+                                           Duration warmup, Duration duration) throws Exception {
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        // One prepared request body per endpoint, reused by every client
+        Map<String, Multipart> bodies = new LinkedHashMap<>();
+        for (String endpoint : mix.keySet()) bodies.put(endpoint, Multipart.of(endpoint, upload));
+        String[] picks = mix.entrySet().stream()
+                .flatMap(e -> Collections.nCopies(e.getValue(), e.getKey()).stream())
+                .toArray(String[]::new);
+
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        List<Sample> samples = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong peakHeap = new AtomicLong();
+
+        Thread heapWatch = Thread.ofPlatform().daemon().start(() -> {
+            var memory = ManagementFactory.getMemoryMXBean();
+            while (!Thread.currentThread().isInterrupted()) {
+                if (System.nanoTime() >= measureFrom) peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+
+        try (ExecutorService clients = Executors.newFixedThreadPool(concurrency)) {
+            for (int i = 0; i < concurrency; i++) {
+                clients.submit(() -> {
+                    while (System.nanoTime() < end) {
+                        String endpoint = picks[ThreadLocalRandom.current().nextInt(picks.length)];
+                        Multipart body = bodies.get(endpoint);
+                        HttpRequest request = HttpRequest.newBuilder(base.resolve(endpoint))
+                                .timeout(Duration.ofMinutes(2))
+                                .header("Content-Type", body.contentType())
+                                .POST(HttpRequest.BodyPublishers.ofByteArray(body.bytes()))
+                                .build();
+                        long sent = System.nanoTime();
+                        int status;
+                        try {
+                            status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                        } catch (IOException e) {
+                            status = -1;
+                        }
+                        long received = System.nanoTime();
+                        if (sent >= measureFrom && received <= end) samples.add(new Sample(endpoint, received - sent, status));
+                    }
+                    return null;
+                });
+            }
+        } finally {
+            heapWatch.interrupt();
+        }
+        return summarize(samples, mix.keySet(), duration, peakHeap.get());
+    }
+
+    private record Sample(String endpoint, long nanos, int status) {
+    }
+
+    private static Map<String, Object> summarize(List<Sample> samples, Iterable<String> endpoints, Duration duration,
+                                                 long peakHeap) {
+        Map<String, Object> results = new LinkedHashMap<>();
+        Map<String, Object> perEndpoint = new LinkedHashMap<>();
+        int total = 0;
+        for (String endpoint : endpoints) {
+            long[] ok = samples.stream().filter(s -> s.endpoint().equals(endpoint) && s.status() == 200)
+                    .mapToLong(Sample::nanos).sorted().toArray();
+            // Status -> count; -1 is a connection failure or timeout
+            Map<Integer, Long> errors = samples.stream().filter(s -> s.endpoint().equals(endpoint) && s.status() != 200)
+                    .collect(Collectors.groupingBy(Sample::status, TreeMap::new, Collectors.counting()));
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("requests", ok.length);
+            stats.put("errors", errors);
+            stats.put("p50Ms", percentileMs(ok, 0.50));
+            stats.put("p95Ms", percentileMs(ok, 0.95));
+            stats.put("p99Ms", percentileMs(ok, 0.99));
+            perEndpoint.put(endpoint, stats);
+            total += ok.length;
+        }
+        results.put("endpoints", perEndpoint);
+        results.put("throughputPerSecond", round(total / (duration.toNanos() / 1e9)));
+        results.put("peakHeapMb", round(peakHeap / (1024.0 * 1024.0)));
+        return results;
+    }
+
+    private static double percentileMs(long[] sorted, double percentile) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return round(sorted[Math.max(0, index)] / 1e6);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
+    }
+
+    // ===== REPORTING =====
+
+    private static int report(Map<String, Object> results, Path baselineFile, double threshold) throws IOException {
+        JsonMapper json = JsonMapper.builder().build();
+        String text = json.writerWithDefaultPrettyPrinter().writeValueAsString(results);
+        System.out.println(text);
+        Path out = Path.of("build", "loadtest", "results.json");
+        Files.createDirectories(out.getParent());
+        Files.writeString(out, text);
+
+        if (Boolean.parseBoolean(setting("saveBaseline", "false"))) {
+            Files.createDirectories(baselineFile.toAbsolutePath().getParent());
+            Files.writeString(baselineFile, text);
+            System.out.println("Saved as the baseline: " + baselineFile);
+            return 0;
+        }
+        if (!Files.exists(baselineFile)) {
+            System.out.println("No baseline at " + baselineFile + " - run with -PloadTest.saveBaseline=true to store one.");
+            return 0;
+        }
+
+        JsonNode baseline = json.readTree(baselineFile.toFile());
+        JsonNode current = json.valueToTree(results);
+        if (!baseline.path("settings").equals(current.get("settings"))) {
+            System.out.println("Warning: the baseline was run with other settings: " + baseline.path("settings"));
+        }
+        List<String> regressions = new ArrayList<>();
+        for (String endpoint : current.get("endpoints").propertyNames()) {
+            JsonNode before = baseline.path("endpoints").path(endpoint);
+            if (before.isMissingNode()) continue;
+            for (String metric : List.of("p50Ms", "p95Ms", "p99Ms")) {
+                compare(regressions, endpoint + " " + metric, before.path(metric).asDouble(),
+                        current.get("endpoints").get(endpoint).get(metric).asDouble(), threshold, true);
+            }
+        }
+        compare(regressions, "throughputPerSecond", baseline.path("throughputPerSecond").asDouble(),
+                current.get("throughputPerSecond").asDouble(), threshold, false);
+        compare(regressions, "peakHeapMb", baseline.path("peakHeapMb").asDouble(),
+                current.get("peakHeapMb").asDouble(), threshold, true);
+
+        if (regressions.isEmpty()) {
+            System.out.printf("Within %.0f%% of the baseline.%n", threshold * 100);
+            return 0;
+        }
+        System.out.printf("Regressions past %.0f%% of the baseline:%n", threshold * 100);
+        regressions.forEach(r -> System.out.println("  " + r));
+        return 1;
+    }
+
+    // lowerIsBetter: latency, heap. Otherwise (throughput) higher is better.
+    private static void compare(List<String> regressions, String name, double before, double now, double threshold,
+                                boolean lowerIsBetter) {
+        if (before <= 0) return;
+        boolean worse = lowerIsBetter ? now > before * (1 + threshold) : now < before * (1 - threshold);
+        if (worse) regressions.add(String.format("%s: %.1f -> %.1f", name, before, now));
+    }
+
+    // A multipart/form-data body: the upload (twice for merge) plus the endpoint's params
+    private record Multipart(String contentType, byte[] bytes) {
+
+        static Multipart of(String endpoint, byte[] upload) throws IOException {
+            String boundary = "----loadtest" + UUID.randomUUID().toString().replace("-", "");
+            ByteArrayOutputStream out = new ByteArrayOutputStream(upload.length * 2 + 1024);
+            if (endpoint.equals("merge")) {
+                file(out, boundary, "files", upload);
+                file(out, boundary, "files", upload);
+            } else {
+                file(out, boundary, "file", upload);
+            }
+            for (Map.Entry<String, String> param : PARAMS.get(endpoint).entrySet()) {
+                out.write(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"" + param.getKey() + "\"\r\n\r\n"
+                        + param.getValue() + "\r\n").getBytes(StandardCharsets.UTF_8));
+            }
+            out.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+            return new Multipart("multipart/form-data; boundary=" + boundary, out.toByteArray());
+        }
+
+        private static void file(ByteArrayOutputStream out, String boundary, String name, byte[] upload) throws IOException {
+            out.write(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"" + name
+                    + "\"; filename=\"upload.pdf\"\r\nContent-Type: application/pdf\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            out.write(upload);
+            out.write("\r\n".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.pdfbackend;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+// One JSON line per request on the "pdf.access" logger, written once the response is done
+// (for streamed results that's after the body, not when the handler returns):
+//   {"method":"POST","path":"/convert","status":200,"ms":412.3,"timing":"upload;dur=20.1, spool;dur=0.4, ..."}
+// Only a sample of them: pdf.access-log.sample-rate of the requests, plus every failed (4xx/5xx)
+// or slow one. The logger goes through an async appender (logback-spring.xml), so the request
+// thread only hands the line over.
+@Component
+public class AccessLogFilter extends OncePerRequestFilter {
+
+    private static final Logger log = LoggerFactory.getLogger("pdf.access");
+
+    private final double sampleRate;
+    private final long slowNanos;
+
+    public AccessLogFilter(
+            @Value("${pdf.access-log.sample-rate:0.1}") double sampleRate,
+            @Value("${pdf.access-log.slow-threshold:5s}") Duration slowThreshold
+    ) {
+        this.sampleRate = sampleRate;
+        this.slowNanos = slowThreshold.toNanos();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        ServerTiming timing = ServerTiming.begin(request, response);
+        boolean failed = true;
+        try {
+            chain.doFilter(request, response);
+            failed = false;
+        } finally {
+            if (!failed && request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        log(request, response.getStatus(), timing);
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                        log(request, HttpServletResponse.SC_SERVICE_UNAVAILABLE, timing);
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                        log(request, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, timing);
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            } else {
+                log(request, failed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : response.getStatus(), timing);
+            }
+        }
+    }
+
+    private void log(HttpServletRequest request, int status, ServerTiming timing) {
+        long nanos = timing.elapsedNanos();
+        if (status < 400 && nanos < slowNanos && ThreadLocalRandom.current().nextDouble() >= sampleRate) return;
+        if (!log.isInfoEnabled()) return;
+        StringBuilder line = new StringBuilder(256)
+                .append("{\"method\":").append(quote(request.getMethod()))
+                .append(",\"path\":").append(quote(request.getRequestURI()))
+                .append(",\"status\":").append(status)
+                .append(",\"ms\":").append(nanos / 100_000 / 10.0);
+        if (!timing.isEmpty()) line.append(",\"timing\":").append(quote(timing.summary()));
+        log.info(line.append('}').toString());
+    }
+
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.pdfbackend;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bulkhead in front of PdfProcessingService. Every operation reserves its estimated heap
+// cost from a global budget before any document is opened, and gives it back once the
+// result has been written. Work that doesn't fit waits in FIFO order up to a deadline;
+// when the wait queue itself is full we answer 503 straight away.
+@Component
+public class AdmissionControl {
+
+    private final long budgetBytes;
+    private final int maxQueue;
+    private final long maxWaitNanos;
+    private final long retryAfterSeconds;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final Deque<Object> queue = new ArrayDeque<>();
+    private long inUseBytes;
+
+    public AdmissionControl(
+            @Value("${pdf.admission.budget:256MB}") DataSize budget,
+            @Value("${pdf.admission.max-queue:16}") int maxQueue,
+            @Value("${pdf.admission.max-wait:20s}") Duration maxWait
+    ) {
+        this.budgetBytes = budget.toBytes();
+        this.maxQueue = maxQueue;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.retryAfterSeconds = Math.max(1, maxWait.toSeconds());
+    }
+
+    // Decided before anything is parsed, so from the upload's size alone
+    public long estimate(PdfOperation operation, long inputBytes) {
+        long cost = (long) (inputBytes * operation.heapPerInputByte());
+        // Anything bigger than the whole budget still gets to run - alone
+        return Math.min(Math.max(cost, 1), budgetBytes);
+    }
+
+    public Permit admit(PdfOperation operation, long inputBytes) throws InterruptedException {
+        long cost = estimate(operation, inputBytes);
+        Object ticket = new Object();
+
+        lock.lockInterruptibly();
+        try {
+            if (queue.isEmpty() && inUseBytes + cost <= budgetBytes) {
+                inUseBytes += cost;
+                return new Permit(cost);
+            }
+            if (queue.size() >= maxQueue) {
+                throw new ServiceBusyException("Server is busy processing other documents. Please try again shortly.", retryAfterSeconds);
+            }
+
+            queue.addLast(ticket);
+            long remaining = maxWaitNanos;
+            try {
+                // Strict FIFO: only the head of the queue may take budget, so big jobs don't starve
+                while (queue.peekFirst() != ticket || inUseBytes + cost > budgetBytes) {
+                    if (remaining <= 0) {
+                        throw new ServiceBusyException("Server is busy processing other documents. Please try again shortly.", retryAfterSeconds);
+                    }
+                    remaining = released.awaitNanos(remaining);
+                }
+                inUseBytes += cost;
+                return new Permit(cost);
+            } finally {
+                queue.remove(ticket);
+                // Whoever is next in line may fit now
+                released.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // For optional background work: the budget if it's free right now, null otherwise. Never waits,
+    // and never goes ahead of requests already waiting.
+    public Permit tryAdmit(long bytes) {
+        long cost = Math.min(Math.max(bytes, 1), budgetBytes);
+        lock.lock();
+        try {
+            if (!queue.isEmpty() || inUseBytes + cost > budgetBytes) return null;
+            inUseBytes += cost;
+            return new Permit(cost);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Heap an admitted operation turns out to need on top of its estimate (decoded images...).
+    // Taken straight away, even past the budget - the operation is already running - so that new
+    // work waits for it instead.
+    public Permit charge(long bytes) {
+        lock.lock();
+        try {
+            inUseBytes += bytes;
+            return new Permit(bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long inUseBytes() {
+        lock.lock();
+        try {
+            return inUseBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int queued() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long budgetBytes() {
+        return budgetBytes;
+    }
+
+    private void release(long bytes) {
+        lock.lock();
+        try {
+            inUseBytes -= bytes;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Held by the PdfOutput until the result has been written, closing it twice is harmless
+    public final class Permit implements AutoCloseable {
+        private final long bytes;
+        private boolean released;
+
+        private Permit(long bytes) {
+            this.bytes = bytes;
+        }
+
+        public long bytes() {
+            return bytes;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (released) return;
+            released = true;
+            release(bytes);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.pdfbackend;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// A document on its way through one or more steps: loaded once, saved once at the end.
+// A step either changes the current document in place or builds a new one from its pages.
+// Earlier documents stay open, because the new one still points into them (shared pages,
+// imported forms); the output closes them, newest first, once the last one has been saved.
+//
+// As long as every step only added to the pages of the upload (page numbers, stamps...), the
+// result can be written as an incremental update: the original file as is, followed by just the
+// objects that changed. Writing that costs about as much as the edit, not as much as the document.
+final class DocumentChain implements AutoCloseable {
+
+    private final PdfSpool spool;
+    private final PdfSource source;
+    // Newest first - later documents depend on earlier ones, not the other way round
+    private final Deque<AutoCloseable> open = new ArrayDeque<>();
+    private PDDocument current;
+    private PageIndex pages;
+    private boolean pristine = true;
+    // current is still the upload, and every change to it went through appended()
+    private boolean appendOnly = true;
+
+    private DocumentChain(PdfSpool spool, PdfSource source) {
+        this.spool = spool;
+        this.source = source;
+    }
+
+    static DocumentChain load(PdfSource source, PdfSpool spool) throws IOException {
+        DocumentChain chain = new DocumentChain(spool, source);
+        PDDocument doc = source.load();
+        chain.open.push(doc);
+        chain.current = doc;
+        chain.pages = PageIndex.of(doc);
+        return chain;
+    }
+
+    PDDocument current() {
+        return current;
+    }
+
+    PageIndex pages() {
+        return pages;
+    }
+
+    // The upload, as long as no step has changed anything yet - so a step can load more views
+    // of it for parallel work. null afterwards.
+    PdfSource pristineSource() {
+        return pristine ? source : null;
+    }
+
+    // A new, empty document that's closed with the rest of the chain
+    PDDocument newDocument() {
+        PDDocument doc = new PDDocument(spool.memoryUsage());
+        open.push(doc);
+        return doc;
+    }
+
+    void keepOpen(AutoCloseable... resources) {
+        for (AutoCloseable resource : resources) open.push(resource);
+    }
+
+    // The step built a new document (from newDocument) that replaces the current one
+    void replace(PDDocument next) {
+        current = next;
+        pages = PageIndex.of(next);
+        pristine = false;
+        appendOnly = false;
+    }
+
+    // The step changed the current document in place
+    void modified() {
+        pristine = false;
+        appendOnly = false;
+    }
+
+    // The step only added content to this page (an appended content stream, plus whatever it
+    // put into the page's resources). Marks everything between the catalog and those objects,
+    // so an incremental save picks them up.
+    void appended(PDPage page) {
+        pristine = false;
+        COSDictionary dict = page.getCOSObject();
+        PDResources resources = page.getResources();
+        if (resources != null) {
+            markUpdated(resources.getCOSObject());
+            for (COSName kind : resources.getCOSObject().keySet()) {
+                markUpdated(resources.getCOSObject().getDictionaryObject(kind));
+            }
+        }
+        // The page and every node above it in the page tree, up to the catalog
+        for (COSDictionary node = dict; node != null; node = node.getCOSDictionary(COSName.PARENT)) {
+            markUpdated(node);
+        }
+        markUpdated(current.getDocumentCatalog().getCOSObject());
+    }
+
+    private static void markUpdated(COSBase object) {
+        if (object instanceof COSObject indirect) object = indirect.getObject();
+        if (object instanceof COSDictionary dict) dict.setNeedToBeUpdated(true);
+    }
+
+    // Saves the current document when written; owns everything else in the chain.
+    // With incremental, append-only edits are written as an incremental update (not for
+    // encrypted uploads: PDFBox would have to re-encrypt the new objects with the old keys).
+    PdfOutput toOutput(boolean incremental) {
+        open.remove(current);
+        AutoCloseable[] rest = open.toArray(new AutoCloseable[0]);
+        open.clear();
+        if (incremental && appendOnly && !pristine && !current.isEncrypted()) {
+            return PdfOutput.appending(current, source.file(), rest);
+        }
+        return PdfOutput.of(current, rest);
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        while (!open.isEmpty()) {
+            try {
+                open.pop().close();
+            } catch (Exception e) {
+                if (failure == null) failure = new IOException("Failed to release document resources", e);
+                else failure.addSuppressed(e);
+            }
+        }
+        if (failure != null) throw failure;
+    }
+}
@@ -0,0 +1,368 @@
+package com.example.pdfbackend;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Uploads kept on the server, so a client can send a file once and then run any number of
+// operations against its id instead of uploading it again for every tool.
+//  - the upload stays in its spool file until it has been idle for the TTL, or the total size
+//    budget pushes the least recently used one out
+//  - on top of that each document keeps one parsed copy ready (as long as the warm budget allows).
+//    An operation takes that copy instead of parsing the file, and the next one is parsed in the
+//    background while it runs. Copies are never shared - most operations change the document they
+//    work on - so every operation gets one of its own.
+//  - background parses are extras: only a few at a time (max-warming), and only when admission
+//    control has room for them right now - they never queue behind or ahead of real requests
+@Component
+public class DocumentWorkspace {
+
+    private static final long HEAP_PER_OBJECT = 2 * 1024;
+
+    private final PdfSpool spool;
+    private final PdfWorkers workers;
+    private final AdmissionControl admission;
+    private final long ttlMillis;
+    private final long maxTotalBytes;
+    private final long warmBudgetBytes;
+    private final int maxWarming;
+
+    // access-ordered, so iteration starts at the least recently used document
+    private final LinkedHashMap<String, Document> documents = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private long warmBytes;
+    private int warming;
+    private long warmHits;
+    private long warmSkipped;
+    private long coldLoads;
+    private long evictions;
+    private long expirations;
+
+    public DocumentWorkspace(
+            PdfSpool spool,
+            PdfWorkers workers,
+            AdmissionControl admission,
+            @Value("${pdf.workspace.ttl:30m}") Duration ttl,
+            @Value("${pdf.workspace.max-total-size:1GB}") DataSize maxTotalSize,
+            @Value("${pdf.workspace.warm-budget:128MB}") DataSize warmBudget,
+            @Value("${pdf.workspace.max-warming:2}") int maxWarming
+    ) {
+        this.spool = spool;
+        this.workers = workers;
+        this.admission = admission;
+        this.ttlMillis = ttl.toMillis();
+        this.maxTotalBytes = maxTotalSize.toBytes();
+        this.warmBudgetBytes = warmBudget.toBytes();
+        this.maxWarming = Math.max(0, maxWarming);
+    }
+
+    // An upload in the workspace. Operations use it like any other PdfSource, except that
+    // closing it doesn't delete the file - the workspace decides when that happens.
+    public final class Document extends PdfSource {
+        private final String id;
+        private long lastUsed = System.currentTimeMillis();
+        // Operations currently reading the file; it's only deleted once they're done
+        private int users;
+        private boolean removed;
+        private PDDocument warm;
+        private boolean warming;
+        // Heap a parsed copy of this document takes, once one has been parsed; 0 until then
+        private long warmSize;
+
+        private Document(String id, Path file, String filename) throws IOException {
+            super(file, filename, spool::memoryUsage);
+            this.id = id;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        @Override
+        public PDDocument load() throws IOException {
+            PDDocument doc = takeWarm(this);
+            if (doc == null) doc = super.load();
+            else PdfMetrics.loaded(doc, -1);
+            warmUp(this);
+            return doc;
+        }
+
+        @Override
+        public void close() {
+            // Released through the workspace, see release()
+        }
+
+        private void deleteFile() {
+            super.close();
+        }
+    }
+
+    // ===== UPLOAD / LOOKUP =====
+
+    public Document add(MultipartFile file) throws IOException {
+        PdfSource upload = spool.spool(file);
+        Document doc;
+        try {
+            doc = new Document(UUID.randomUUID().toString(), upload.file(), upload.filename());
+        } catch (IOException | RuntimeException e) {
+            upload.close();
+            throw e;
+        }
+
+        synchronized (this) {
+            documents.put(doc.id, doc);
+            totalBytes += doc.size();
+            evictOverBudget(doc);
+        }
+        // Parse it now, so the first operation doesn't have to
+        warmUp(doc);
+        return doc;
+    }
+
+    // Null if it never existed, expired or was evicted
+    public synchronized Document get(String id) {
+        Document doc = documents.get(id);
+        if (doc != null && isExpired(doc, System.currentTimeMillis())) {
+            expirations++;
+            remove(id);
+            return null;
+        }
+        if (doc != null) doc.lastUsed = System.currentTimeMillis();
+        return doc;
+    }
+
+    // All of them or none; each one acquired has to be given back with release()
+    public synchronized List<PdfSource> acquire(List<String> ids) {
+        List<PdfSource> sources = new ArrayList<>();
+        for (String id : ids) {
+            Document doc = get(id);
+            if (doc == null) {
+                release(sources);
+                return null;
+            }
+            doc.users++;
+            sources.add(doc);
+        }
+        return sources;
+    }
+
+    public synchronized void release(List<PdfSource> sources) {
+        for (PdfSource source : sources) unuse((Document) source);
+    }
+
+    private void unuse(Document doc) {
+        doc.users--;
+        if (doc.removed && doc.users == 0) doc.deleteFile();
+    }
+
+    public synchronized boolean remove(String id) {
+        Document doc = documents.remove(id);
+        if (doc == null) return false;
+        discard(doc);
+        return true;
+    }
+
+    public long ttlSeconds() {
+        return ttlMillis / 1000;
+    }
+
+    public synchronized boolean isWarm(Document doc) {
+        return doc.warm != null;
+    }
+
+    // ===== PARSED COPIES =====
+
+    private PDDocument takeWarm(Document doc) {
+        synchronized (this) {
+            PDDocument taken = doc.warm;
+            if (taken == null) {
+                coldLoads++;
+                return null;
+            }
+            doc.warm = null;
+            warmBytes -= doc.warmSize;
+            warmHits++;
+            return taken;
+        }
+    }
+
+    // Parses the next copy on the shared workers, if there's room for it: in the warm budget, among
+    // the warm-ups already running, and in admission control for as long as the parse runs
+    private void warmUp(Document doc) {
+        AdmissionControl.Permit permit;
+        synchronized (this) {
+            long cost = warmCost(doc);
+            if (doc.removed || doc.warm != null || doc.warming || cost > warmBudgetBytes) return;
+            if (warming >= maxWarming) {
+                warmSkipped++;
+                return;
+            }
+            permit = admission.tryAdmit(cost);
+            if (permit == null) {
+                warmSkipped++;
+                return;
+            }
+            warming++;
+            doc.warming = true;
+            doc.users++;
+        }
+        try {
+            workers.pool().execute(() -> warm(doc, permit));
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                warming--;
+                doc.warming = false;
+                unuse(doc);
+            }
+            permit.close();
+            throw e;
+        }
+    }
+
+    private void warm(Document doc, AdmissionControl.Permit permit) {
+        PDDocument parsed = null;
+        try {
+            parsed = PDDocument.load(doc.file().toFile(), spool.memoryUsage());
+        } catch (IOException | RuntimeException ignored) {
+            // Not a PDF, or a broken one: the operation that tries to load it reports the error
+        } finally {
+            permit.close();
+        }
+        PDDocument unused = parsed;
+        synchronized (this) {
+            warming--;
+            doc.warming = false;
+            if (parsed != null) doc.warmSize = parsedSize(doc, parsed);
+            if (parsed != null && !doc.removed && doc.warm == null && doc.warmSize <= warmBudgetBytes) {
+                doc.warm = parsed;
+                warmBytes += doc.warmSize;
+                unused = null;
+                evictWarmOverBudget(doc);
+            }
+            unuse(doc);
+        }
+        closeQuietly(unused);
+    }
+
+    // What a parse of doc will take: known once it has been parsed, a guess from the file size
+    // before that
+    private static long warmCost(Document doc) {
+        return doc.warmSize > 0 ? doc.warmSize : doc.size() * 2;
+    }
+
+    // PDFBox keeps the file's bytes (mostly stream data) plus a parsed object for every entry in the
+    // cross-reference table. Measured on sample documents that's about 1.5x the file and 2KB per
+    // object - a text-heavy file with thousands of pages is mostly the latter.
+    private static long parsedSize(Document doc, PDDocument parsed) {
+        long objects = parsed.getDocument().getXrefTable().size();
+        return doc.size() * 3 / 2 + objects * HEAP_PER_OBJECT;
+    }
+
+    // Least recently used first. Only the parsed copies go - the documents themselves stay.
+    private void evictWarmOverBudget(Document keep) {
+        Iterator<Document> it = documents.values().iterator();
+        while (warmBytes > warmBudgetBytes && it.hasNext()) {
+            Document doc = it.next();
+            if (doc == keep || doc.warm == null) continue;
+            dropWarm(doc);
+        }
+    }
+
+    private void dropWarm(Document doc) {
+        if (doc.warm == null) return;
+        closeQuietly(doc.warm);
+        doc.warm = null;
+        warmBytes -= doc.warmSize;
+    }
+
+    // ===== RETENTION =====
+
+    @Scheduled(fixedDelayString = "${pdf.workspace.sweep-interval:60s}")
+    public synchronized void sweepExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Document> it = documents.values().iterator();
+        while (it.hasNext()) {
+            Document doc = it.next();
+            if (isExpired(doc, now)) {
+                it.remove();
+                discard(doc);
+                expirations++;
+            }
+        }
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("documents", documents.size());
+        stats.put("totalBytes", totalBytes);
+        stats.put("maxTotalBytes", maxTotalBytes);
+        stats.put("warmBytes", warmBytes);
+        stats.put("warmBudgetBytes", warmBudgetBytes);
+        stats.put("warming", warming);
+        stats.put("warmHits", warmHits);
+        stats.put("warmSkipped", warmSkipped);
+        stats.put("coldLoads", coldLoads);
+        stats.put("evictions", evictions);
+        stats.put("expirations", expirations);
+        return stats;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        for (Document doc : documents.values()) discard(doc);
+        documents.clear();
+    }
+
+    private boolean isExpired(Document doc, long now) {
+        return doc.users == 0 && now - doc.lastUsed > ttlMillis;
+    }
+
+    // Drops least recently used documents until the uploads fit the budget again.
+    // The one just added is kept even if it alone is over budget.
+    private void evictOverBudget(Document justAdded) {
+        List<Document> victims = new ArrayList<>();
+        long total = totalBytes;
+        for (Document doc : documents.values()) {
+            if (total <= maxTotalBytes) break;
+            if (doc == justAdded) continue;
+            victims.add(doc);
+            total -= doc.size();
+        }
+        for (Document victim : victims) {
+            documents.remove(victim.id);
+            discard(victim);
+            evictions++;
+        }
+    }
+
+    private void discard(Document doc) {
+        if (doc.removed) return;
+        doc.removed = true;
+        totalBytes -= doc.size();
+        dropWarm(doc);
+        if (doc.users == 0) doc.deleteFile();
+    }
+
+    private static void closeQuietly(PDDocument doc) {
+        if (doc == null) return;
+        try {
+            doc.close();
+        } catch (IOException ignored) {
+            // Only a parsed copy, nothing was written
+        }
+    }
+}
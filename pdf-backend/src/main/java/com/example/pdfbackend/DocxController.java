@@ -1,31 +1,35 @@
 package com.example.pdfbackend;
 
 import jakarta.servlet.http.HttpServletRequest;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 @CrossOrigin(origins = "*")
 @RestController
 public class DocxController {
 
     private static final long MAX_BYTES = 20L * 1024 * 1024; // 20MB
-    private static final int MAX_REQ_PER_MINUTE = 10; // Bumped limit for better UX
 
-    private final Map<String, Deque<Long>> ipHits = new ConcurrentHashMap<>();
-    
-    // This is the "Brain" we will build in the next step
-    private final PdfProcessingService pdfService;
-
-    public DocxController(PdfProcessingService pdfService) {
-        this.pdfService = pdfService;
+    // Routes to the "Brain" (PdfProcessingService) behind admission control
+    private final OperationDispatcher dispatcher;
+    private final PdfSpool spool;
+    private final RateLimiter rateLimiter;
+    private final ResultCache resultCache;
+    private final RequestCoalescer coalescer;
+
+    public DocxController(OperationDispatcher dispatcher, PdfSpool spool, RateLimiter rateLimiter,
+                          ResultCache resultCache, RequestCoalescer coalescer) {
+        this.dispatcher = dispatcher;
+        this.spool = spool;
+        this.rateLimiter = rateLimiter;
+        this.resultCache = resultCache;
+        this.coalescer = coalescer;
     }
 
     // ===== 1. HEALTH CHECK =====
@@ -34,9 +38,16 @@ public class DocxController {
         return ResponseEntity.ok("OK");
     }
 
+    @GetMapping("/cache/stats")
+    public Map<String, Object> cacheStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(resultCache.stats());
+        stats.put("coalescing", coalescer.stats());
+        return stats;
+    }
+
     // ===== 2. PAGES PER SHEET =====
     @PostMapping(value = "/convert", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<byte[]> convert(
+    public ResponseEntity<StreamingResponseBody> convert(
             HttpServletRequest request,
             @RequestPart("file") MultipartFile file,
             @RequestParam("pagesPerSheet") int pagesPerSheet,
@@ -44,59 +55,60 @@ public class DocxController {
             @RequestParam("mode") String mode
     ) throws Exception {
 
-        if (!allowRequest(request)) return tooManyRequests();
+        if (!rateLimiter.allowRequest(request, "convert", file)) return PdfResponses.tooManyRequests();
         validateFile(file);
 
         // Controller just routes traffic. The Service does the hard work.
-        byte[] resultBytes = pdfService.generatePagesPerSheet(file.getBytes(), pagesPerSheet, paperSize, mode);
-
-        return buildPdfResponse(resultBytes, "Pages_Per_Sheet.pdf");
+        return process(PdfOperation.CONVERT, Map.of(
+                "pagesPerSheet", String.valueOf(pagesPerSheet),
+                "paperSize", paperSize,
+                "mode", mode), file);
     }
 
     // ===== 3. MERGE PDFs =====
     @PostMapping(value = "/merge", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<byte[]> merge(
+    public ResponseEntity<StreamingResponseBody> merge(
             HttpServletRequest request,
-            @RequestPart("files") MultipartFile[] files
+            @RequestPart("files") MultipartFile[] files,
+            @RequestParam(value = "dedupe", defaultValue = "true") String dedupe // share fonts/images the files have in common
     ) throws Exception {
 
-        if (!allowRequest(request)) return tooManyRequests();
+        if (!rateLimiter.allowRequest(request, "merge", files)) return PdfResponses.tooManyRequests();
         if (files == null || files.length < 2) {
             throw new IllegalArgumentException("Please upload at least 2 files to merge.");
         }
 
-        byte[] resultBytes = pdfService.mergePdfs(files);
-        return buildPdfResponse(resultBytes, "Merged_Document.pdf");
+        for (MultipartFile file : files) validateFile(file);
+
+        return process(PdfOperation.MERGE, Map.of("dedupe", dedupe), files);
     }
 
     // ===== 4. SPLIT / CUT PDF =====
     @PostMapping(value = "/split", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<byte[]> split(
+    public ResponseEntity<StreamingResponseBody> split(
             HttpServletRequest request,
             @RequestPart("file") MultipartFile file,
-            @RequestParam("pages") String pages // e.g., "1,3,5" or "1-3"
+            @RequestParam("pages") String pages // e.g., "1-3,5,7-", "every 2" or "bookmarks"
     ) throws Exception {
 
-        if (!allowRequest(request)) return tooManyRequests();
+        if (!rateLimiter.allowRequest(request, "split", file)) return PdfResponses.tooManyRequests();
         validateFile(file);
 
-        byte[] resultBytes = pdfService.splitPdf(file.getBytes(), pages);
-        return buildPdfResponse(resultBytes, "Split_Document.pdf");
+        return process(PdfOperation.SPLIT, Map.of("pages", pages), file);
     }
 
     // ===== 5. COMPRESS PDF =====
     @PostMapping(value = "/compress", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<byte[]> compress(
+    public ResponseEntity<StreamingResponseBody> compress(
             HttpServletRequest request,
             @RequestPart("file") MultipartFile file,
             @RequestParam("level") String level
     ) throws Exception {
 
-        if (!allowRequest(request)) return tooManyRequests();
+        if (!rateLimiter.allowRequest(request, "compress", file)) return PdfResponses.tooManyRequests();
         validateFile(file);
 
-        byte[] resultBytes = pdfService.compressPdf(file.getBytes(), level);
-        return buildPdfResponse(resultBytes, "Compressed_Document.pdf");
+        return process(PdfOperation.COMPRESS, Map.of("level", level), file);
     }
 
 
@@ -104,37 +116,35 @@ public class DocxController {
 
     // ===== 6. DELETE PAGES =====
     @PostMapping(value = "/delete", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<byte[]> delete(
+    public ResponseEntity<StreamingResponseBody> delete(
             HttpServletRequest request,
             @RequestPart("file") MultipartFile file,
-            @RequestParam("pages") String pages // e.g., "1, 5-8"
+            @RequestParam("pages") String pages // e.g., "1, 5-8", "even" or "1-20:3"
     ) throws Exception {
 
-        if (!allowRequest(request)) return tooManyRequests();
+        if (!rateLimiter.allowRequest(request, "delete", file)) return PdfResponses.tooManyRequests();
         validateFile(file);
 
-        byte[] resultBytes = pdfService.deletePages(file.getBytes(), pages);
-        return buildPdfResponse(resultBytes, "Deleted_Pages.pdf");
+        return process(PdfOperation.DELETE, Map.of("pages", pages), file);
     }
 
     // ===== 7. REARRANGE PAGES =====
     @PostMapping(value = "/rearrange", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<byte[]> rearrange(
+    public ResponseEntity<StreamingResponseBody> rearrange(
             HttpServletRequest request,
             @RequestPart("file") MultipartFile file,
-            @RequestParam("order") String order // e.g., "3,1,2"
+            @RequestParam("order") String order // e.g., "3,1,2", "reverse" or "2-5,1"
     ) throws Exception {
 
-        if (!allowRequest(request)) return tooManyRequests();
+        if (!rateLimiter.allowRequest(request, "rearrange", file)) return PdfResponses.tooManyRequests();
         validateFile(file);
 
-        byte[] resultBytes = pdfService.rearrangePages(file.getBytes(), order);
-        return buildPdfResponse(resultBytes, "Rearranged_Document.pdf");
+        return process(PdfOperation.REARRANGE, Map.of("order", order), file);
     }
 
     // ===== 8. ADD PAGE NUMBERS =====
     @PostMapping(value = "/add-page-numbers", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<byte[]> addPageNumbers(
+    public ResponseEntity<StreamingResponseBody> addPageNumbers(
             HttpServletRequest request,
             @RequestPart("file") MultipartFile file,
             @RequestParam("position") String position,
@@ -143,50 +153,122 @@ public class DocxController {
             @RequestParam("format") String format
     ) throws Exception {
 
-        if (!allowRequest(request)) return tooManyRequests();
+        if (!rateLimiter.allowRequest(request, "add-page-numbers", file)) return PdfResponses.tooManyRequests();
         validateFile(file);
 
-        byte[] resultBytes = pdfService.addPageNumbers(file.getBytes(), position, margin, startNumber, format);
-        return buildPdfResponse(resultBytes, "Numbered_Document.pdf");
+        return process(PdfOperation.ADD_PAGE_NUMBERS, Map.of(
+                "position", position,
+                "margin", margin,
+                "startNumber", String.valueOf(startNumber),
+                "format", format), file);
     }
 
-    private void validateFile(MultipartFile file) {
-        if (file == null || file.isEmpty()) {
-            throw new IllegalArgumentException("No file uploaded.");
-        }
-        if (file.getSize() > MAX_BYTES) {
-            throw new IllegalArgumentException("File too large. Max allowed is 20MB.");
-        }
+    // ===== 9. PIPELINE =====
+    // Several steps on one upload, e.g. delete -> rearrange -> add page numbers -> 4-up.
+    // The document is parsed once and saved once, however many steps there are.
+    @PostMapping(value = "/pipeline", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<StreamingResponseBody> pipeline(
+            HttpServletRequest request,
+            @RequestPart("file") MultipartFile file,
+            @RequestParam("steps") String steps // JSON, e.g. [{"op":"delete","params":{"pages":"1"}}, ...]
+    ) throws Exception {
+
+        if (!rateLimiter.allowRequest(request, "pipeline", file)) return PdfResponses.tooManyRequests();
+        validateFile(file);
+
+        return process(PdfOperation.PIPELINE, Map.of("steps", steps), file);
     }
 
-    private ResponseEntity<byte[]> buildPdfResponse(byte[] bytes, String filename) {
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                .contentType(MediaType.APPLICATION_PDF)
-                .body(bytes);
+    // ===== 10. WATERMARK =====
+    // A text or an image, drawn on every page (or just "pages")
+    @PostMapping(value = "/watermark", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<StreamingResponseBody> watermark(
+            HttpServletRequest request,
+            @RequestPart("file") MultipartFile file,
+            @RequestPart(value = "image", required = false) MultipartFile image, // PNG or JPEG, instead of text
+            @RequestParam(value = "text", required = false) String text,
+            @RequestParam(value = "opacity", defaultValue = "0.3") String opacity,
+            @RequestParam(value = "rotation", required = false) String rotation, // degrees; 45 for text, 0 for images
+            @RequestParam(value = "fontSize", defaultValue = "48") String fontSize,
+            @RequestParam(value = "color", defaultValue = "#808080") String color,
+            @RequestParam(value = "scale", defaultValue = "0.5") String scale, // image width / page width
+            @RequestParam(value = "position", defaultValue = "center") String position,
+            @RequestParam(value = "pages", required = false) String pages
+    ) throws Exception {
+
+        if (!rateLimiter.allowRequest(request, "watermark", file, image)) return PdfResponses.tooManyRequests();
+        validateFile(file);
+        if (image != null) validateFile(image);
+
+        Map<String, String> params = new LinkedHashMap<>();
+        if (text != null) params.put("text", text);
+        params.put("opacity", opacity);
+        if (rotation != null) params.put("rotation", rotation);
+        params.put("fontSize", fontSize);
+        params.put("color", color);
+        params.put("scale", scale);
+        params.put("position", position);
+        if (pages != null) params.put("pages", pages);
+        return image != null
+                ? process(PdfOperation.WATERMARK, params, file, image)
+                : process(PdfOperation.WATERMARK, params, file);
     }
 
-    private ResponseEntity<byte[]> tooManyRequests() {
-        return ResponseEntity.status(429).body("Too many requests. Please try again in a minute.".getBytes());
+    // ===== 11. HEADER / FOOTER =====
+    // Text at the top and/or bottom of every page; {page} and {total} become page numbers
+    @PostMapping(value = "/header-footer", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<StreamingResponseBody> headerFooter(
+            HttpServletRequest request,
+            @RequestPart("file") MultipartFile file,
+            @RequestParam(value = "header", required = false) String header, // e.g. "Quarterly report"
+            @RequestParam(value = "footer", required = false) String footer, // e.g. "Page {page} of {total}"
+            @RequestParam(value = "align", defaultValue = "center") String align,
+            @RequestParam(value = "margin", defaultValue = "normal") String margin,
+            @RequestParam(value = "fontSize", defaultValue = "10") String fontSize,
+            @RequestParam(value = "startNumber", defaultValue = "1") String startNumber,
+            @RequestParam(value = "pages", required = false) String pages
+    ) throws Exception {
+
+        if (!rateLimiter.allowRequest(request, "header-footer", file)) return PdfResponses.tooManyRequests();
+        validateFile(file);
+
+        Map<String, String> params = new LinkedHashMap<>();
+        if (header != null) params.put("header", header);
+        if (footer != null) params.put("footer", footer);
+        params.put("align", align);
+        params.put("margin", margin);
+        params.put("fontSize", fontSize);
+        params.put("startNumber", startNumber);
+        if (pages != null) params.put("pages", pages);
+        return process(PdfOperation.HEADER_FOOTER, params, file);
     }
 
-    private boolean allowRequest(HttpServletRequest request) {
-        String ip = request.getHeader("X-Forwarded-For");
-        if (ip == null || ip.isBlank()) {
-            ip = request.getRemoteAddr();
-        } else {
-            ip = ip.split(",")[0].trim();
+    static void validateFile(MultipartFile file) {
+        if (file == null || file.isEmpty()) {
+            throw new IllegalArgumentException("No file uploaded.");
         }
+        if (file.getSize() > MAX_BYTES) {
+            throw new IllegalArgumentException("File too large. Max allowed is 20MB.");
+        }
+    }
 
-        long now = System.currentTimeMillis();
-        long windowStart = now - 60_000;
-
-        Deque<Long> q = ipHits.computeIfAbsent(ip, k -> new ArrayDeque<>());
-        synchronized (q) {
-            while (!q.isEmpty() && q.peekFirst() < windowStart) q.pollFirst();
-            if (q.size() >= MAX_REQ_PER_MINUTE) return false;
-            q.addLast(now);
-            return true;
+    // Spools the uploads, runs the operation and hands the result over to the response.
+    // The spooled files are released together with the output once it has been written.
+    // Every stage is timed for the Server-Timing header (see ServerTiming).
+    private ResponseEntity<StreamingResponseBody> process(PdfOperation operation, Map<String, String> params, MultipartFile... files) throws Exception {
+        ServerTiming timing = ServerTiming.current();
+        // Multipart parsing reads the whole body before the handler runs
+        if (timing != null) timing.record("upload", timing.elapsedNanos());
+        long spoolStart = System.nanoTime();
+        OperationRequest request = new OperationRequest(operation, spool.spoolAll(files), params);
+        if (timing != null) timing.record("spool", System.nanoTime() - spoolStart);
+        PdfOutput output;
+        try {
+            output = dispatcher.execute(request);
+        } catch (Exception e) {
+            request.closeSources();
+            throw e;
         }
+        return PdfResponses.build(output.closing(request::closeSources), operation.filename());
     }
 }
\ No newline at end of file
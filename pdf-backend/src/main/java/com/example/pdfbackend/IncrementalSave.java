@@ -0,0 +1,109 @@
+package com.example.pdfbackend;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.pdfwriter.COSWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Writes a document that was loaded from a file as an incremental update: the file itself,
+// byte for byte, followed by only the objects marked setNeedToBeUpdated (plus the new ones they
+// point to), a new xref section and a trailer pointing back at the old one.
+//
+// PDDocument.saveIncremental does the same, but copies the original through PDFBox's own
+// random-access reader in 4KB pages - on a big scan that's slower than a full save. Here the
+// original goes out with a plain file copy, and COSWriter only writes the increment.
+final class IncrementalSave {
+
+    private IncrementalSave() {
+    }
+
+    static void write(PDDocument doc, Path original, OutputStream out) throws IOException {
+        long originalLength = Files.size(original);
+        Files.copy(original, out);
+        // COSWriter closes its stream; the caller still owns this one
+        try (COSWriter writer = new COSWriter(StreamUtils.nonClosing(out), new AlreadyWritten(originalLength))) {
+            writer.write(doc);
+        }
+    }
+
+    // What COSWriter appends to. It needs the original's length (new objects and the xref are
+    // offset by it) and copies whatever it can read out of it - nothing, since that's done already.
+    private static final class AlreadyWritten implements RandomAccessRead {
+        private final long length;
+        private boolean closed;
+
+        AlreadyWritten(long length) {
+            this.length = length;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public int read() {
+            return -1;
+        }
+
+        @Override
+        public int read(byte[] b) {
+            return -1;
+        }
+
+        @Override
+        public int read(byte[] b, int offset, int length) {
+            return -1;
+        }
+
+        @Override
+        public int peek() {
+            return -1;
+        }
+
+        @Override
+        public long getPosition() {
+            return length;
+        }
+
+        @Override
+        public void seek(long position) {
+            // always at the end
+        }
+
+        @Override
+        public void rewind(int bytes) {
+            // always at the end
+        }
+
+        @Override
+        public byte[] readFully(int length) throws IOException {
+            throw new IOException("The original document has already been written");
+        }
+
+        @Override
+        public boolean isEOF() {
+            return true;
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.pdfbackend;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.tomcat.util.threads.ThreadPoolExecutor;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
+import org.springframework.boot.tomcat.TomcatWebServer;
+import org.springframework.boot.web.server.context.WebServerInitializedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executor;
+import java.util.function.ToDoubleFunction;
+
+// How busy the request threads are, next to PdfCpuPool's pool=cpu numbers: pdf.threads.active /
+// queued / limit tagged pool=io.
+//   platform threads   Tomcat's worker pool: busy threads, connections waiting for one, max threads
+//   virtual threads    the JVM's carrier threads, which run every virtual thread (requests and
+//                      streamed responses): mounted virtual threads, ones ready to run but waiting
+//                      for a carrier, carriers. Read from the JDK's VirtualThreadScheduler MXBean
+//                      (Java 24+); left out on older JVMs.
+// Registered once the server is up, when its executor exists.
+@Component
+public class IoThreadMetrics {
+
+    private static final String SCHEDULER = "jdk.management:type=VirtualThreadScheduler";
+
+    private final MeterRegistry registry;
+
+    public IoThreadMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @EventListener
+    public void onStarted(WebServerInitializedEvent event) {
+        if (!(event.getWebServer() instanceof TomcatWebServer tomcat)) return;
+        Executor executor = tomcat.getTomcat().getConnector().getProtocolHandler().getExecutor();
+        if (executor instanceof ThreadPoolExecutor pool) {
+            gauge("pdf.threads.active", pool, ThreadPoolExecutor::getActiveCount);
+            gauge("pdf.threads.queued", pool, p -> p.getQueue().size());
+            gauge("pdf.threads.limit", pool, ThreadPoolExecutor::getMaximumPoolSize);
+        } else if (executor instanceof VirtualThreadExecutor) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName scheduler;
+            try {
+                scheduler = new ObjectName(SCHEDULER);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            if (!server.isRegistered(scheduler)) return;
+            gauge("pdf.threads.active", server, s -> attribute(s, scheduler, "MountedVirtualThreadCount"));
+            gauge("pdf.threads.queued", server, s -> attribute(s, scheduler, "QueuedVirtualThreadCount"));
+            gauge("pdf.threads.limit", server, s -> attribute(s, scheduler, "Parallelism"));
+        }
+    }
+
+    private <T> void gauge(String name, T source, ToDoubleFunction<T> value) {
+        Gauge.builder(name, source, value).tag("pool", "io").register(registry);
+    }
+
+    private static double attribute(MBeanServer server, ObjectName name, String attribute) {
+        try {
+            return ((Number) server.getAttribute(name, attribute)).doubleValue();
+        } catch (Exception e) {
+            return Double.NaN;
+        }
+    }
+}
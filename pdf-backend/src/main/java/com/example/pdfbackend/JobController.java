@@ -0,0 +1,96 @@
+package com.example.pdfbackend;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Async variant of every DocxController endpoint: submit, poll, then download.
+// Same form fields as the synchronous endpoints ("file" or "files" + the operation's params).
+@CrossOrigin(origins = "*")
+@RestController
+@RequestMapping("/jobs")
+public class JobController {
+
+    private final JobService jobService;
+    private final JobStore jobStore;
+    private final PdfSpool spool;
+    private final RateLimiter rateLimiter;
+
+    public JobController(JobService jobService, JobStore jobStore, PdfSpool spool, RateLimiter rateLimiter) {
+        this.jobService = jobService;
+        this.jobStore = jobStore;
+        this.spool = spool;
+        this.rateLimiter = rateLimiter;
+    }
+
+    // ===== SUBMIT =====
+    @PostMapping(value = "/{op}", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<Map<String, Object>> submit(
+            HttpServletRequest request,
+            @PathVariable("op") String op,
+            @RequestPart(value = "file", required = false) MultipartFile file,
+            @RequestPart(value = "files", required = false) MultipartFile[] files,
+            @RequestPart(value = "image", required = false) MultipartFile image, // watermark image
+            @RequestParam Map<String, String> params
+    ) throws Exception {
+
+        PdfOperation operation = PdfOperation.fromPath(op);
+        MultipartFile[] uploads = (files != null && files.length > 0) ? files
+                : image != null ? new MultipartFile[]{file, image} : new MultipartFile[]{file};
+
+        if (!rateLimiter.allowRequest(request, operation.path(), uploads)) {
+            return ResponseEntity.status(429).body(Map.of("message", "Too many requests. Please try again in a minute."));
+        }
+        for (MultipartFile upload : uploads) DocxController.validateFile(upload);
+
+        List<PdfSource> sources = spool.spoolAll(uploads);
+        JobStore.Job job = jobService.submit(new OperationRequest(operation, sources, Map.copyOf(params)));
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(describe(job));
+    }
+
+    // ===== RETENTION STATS (for sizing pdf.jobs.*) =====
+    @GetMapping("/stats")
+    public Map<String, Object> stats() {
+        return jobStore.stats();
+    }
+
+    // ===== POLL =====
+    @GetMapping("/{id}")
+    public ResponseEntity<Map<String, Object>> status(@PathVariable("id") String id) {
+        JobStore.Job job = jobStore.get(id);
+        if (job == null) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(describe(job));
+    }
+
+    // ===== DOWNLOAD =====
+    @GetMapping("/{id}/result")
+    public ResponseEntity<StreamingResponseBody> result(@PathVariable("id") String id) throws Exception {
+        JobStore.Job job = jobStore.get(id);
+        if (job == null) return ResponseEntity.notFound().build();
+
+        PdfOutput result = jobStore.openResult(job);
+        if (result == null) {
+            byte[] message = ("Job is " + job.status + ": " + job.message).getBytes();
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(out -> out.write(message));
+        }
+        return PdfResponses.build(result, job.filename);
+    }
+
+    private Map<String, Object> describe(JobStore.Job job) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("id", job.id);
+        body.put("status", job.status);
+        body.put("progress", job.progress);
+        body.put("message", job.message);
+        body.put("filename", job.filename);
+        return body;
+    }
+}
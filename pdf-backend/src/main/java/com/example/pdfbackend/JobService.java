@@ -0,0 +1,79 @@
+package com.example.pdfbackend;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs operations in the background so long N-up / merge work doesn't sit on a Tomcat thread.
+// Fixed number of workers and a bounded queue - once both are full new jobs get a 503.
+@Service
+public class JobService {
+
+    private final JobStore jobStore;
+    private final OperationDispatcher dispatcher;
+    private final ThreadPoolExecutor workers;
+
+    public JobService(
+            JobStore jobStore,
+            OperationDispatcher dispatcher,
+            @Value("${pdf.jobs.workers:2}") int workerCount,
+            @Value("${pdf.jobs.queue-capacity:20}") int queueCapacity
+    ) {
+        this.jobStore = jobStore;
+        this.dispatcher = dispatcher;
+
+        AtomicInteger threadIds = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "pdf-job-" + threadIds.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Takes ownership of the request's spooled sources - they're released once the job finishes
+    public JobStore.Job submit(OperationRequest request) {
+        JobStore.Job job = jobStore.create(request.operation().filename());
+        try {
+            workers.execute(() -> run(job, request));
+        } catch (RejectedExecutionException e) {
+            jobStore.remove(job.id);
+            request.closeSources();
+            throw new ServiceBusyException("Too many jobs queued. Please try again shortly.", 30);
+        }
+        return job;
+    }
+
+    private void run(JobStore.Job job, OperationRequest request) {
+        job.status = "RUNNING";
+        job.message = "Processing";
+        job.progress = 10;
+        try (PdfOutput output = dispatcher.execute(request)) {
+            job.progress = 60;
+            job.message = "Saving";
+            jobStore.complete(job, output);
+            job.progress = 100;
+            job.message = "Done";
+            job.status = "DONE";
+        } catch (IllegalArgumentException e) {
+            jobStore.fail(job, e.getMessage());
+        } catch (Exception e) {
+            jobStore.fail(job, "An error occurred while processing the document: " + e.getMessage());
+        } finally {
+            request.closeSources();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.pdfbackend;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Keeps jobs and their results around long enough to be downloaded - but bounded:
+//  - finished jobs expire after a TTL
+//  - results are LRU-evicted once they add up to more than the byte budget
+//  - results above the spill threshold live in scratch files instead of on the heap
+@Component
+public class JobStore {
+
+    public static class Job {
+        public String id;
+        public volatile int progress;
+        public volatile String status;
+        public volatile String message;
+        public volatile byte[] result;
+        public volatile Path resultFile;
+        public volatile long resultSize;
+        public volatile String filename;
+        public volatile MediaType contentType;
+        public volatile long finishedAt;
+        // Downloads still sending the result file; it's only deleted once they're done (see release)
+        int users;
+        Path orphaned;
+
+        public boolean isFinished() {
+            return finishedAt > 0;
+        }
+    }
+
+    private final PdfSpool spool;
+    private final long ttlMillis;
+    private final long maxTotalBytes;
+    private final long spillThresholdBytes;
+
+    // access-ordered, so iteration starts at the least recently used job
+    private final LinkedHashMap<String, Job> jobs = new LinkedHashMap<>(16, 0.75f, true);
+    private long residentBytes;
+    private long spilledBytes;
+    private long evictions;
+    private long expirations;
+
+    public JobStore(
+            PdfSpool spool,
+            @Value("${pdf.jobs.ttl:30m}") Duration ttl,
+            @Value("${pdf.jobs.max-total-results:256MB}") DataSize maxTotalResults,
+            @Value("${pdf.jobs.spill-threshold:4MB}") DataSize spillThreshold
+    ) {
+        this.spool = spool;
+        this.ttlMillis = ttl.toMillis();
+        this.maxTotalBytes = maxTotalResults.toBytes();
+        this.spillThresholdBytes = spillThreshold.toBytes();
+    }
+
+    public synchronized Job create(String filename) {
+        Job j = new Job();
+        j.id = UUID.randomUUID().toString();
+        j.progress = 0;
+        j.status = "QUEUED";
+        j.message = "Queued";
+        j.filename = filename;
+        jobs.put(j.id, j);
+        return j;
+    }
+
+    public synchronized Job get(String id) {
+        Job job = jobs.get(id);
+        if (job != null && isExpired(job, System.currentTimeMillis())) {
+            expirations++;
+            discard(jobs.remove(id));
+            return null;
+        }
+        return job;
+    }
+
+    public synchronized void remove(String id) {
+        discard(jobs.remove(id));
+    }
+
+    // Writes the output into the job - on the heap while it's small, into a scratch file past the threshold
+    public void complete(Job job, PdfOutput output) throws IOException {
+        SpillBuffer sink = new SpillBuffer(spool, spillThresholdBytes, "job-");
+        try (sink) {
+            output.writeTo(sink);
+        } catch (IOException | RuntimeException e) {
+            sink.discard();
+            throw e;
+        }
+
+        synchronized (this) {
+            job.result = sink.bytes();
+            job.resultFile = sink.file();
+            job.resultSize = sink.size();
+            job.contentType = output.contentType();
+            if (output.filename() != null) job.filename = output.filename();
+            job.finishedAt = System.currentTimeMillis();
+            if (job.resultFile != null) spilledBytes += job.resultSize;
+            else residentBytes += job.resultSize;
+
+            if (!jobs.containsKey(job.id)) {
+                // Evicted while it was running
+                discard(job);
+                return;
+            }
+            evictOverBudget(job);
+        }
+    }
+
+    public synchronized void fail(Job job, String message) {
+        job.message = message;
+        job.status = "FAILED";
+        job.finishedAt = System.currentTimeMillis();
+    }
+
+    // Null until the job has produced something
+    public PdfOutput openResult(Job job) throws IOException {
+        byte[] bytes;
+        Path file;
+        synchronized (this) {
+            // Eviction may drop or delete them as soon as we let go of the lock
+            bytes = job.result;
+            file = job.resultFile;
+            if (bytes == null && (file == null || !Files.exists(file))) return null;
+            if (bytes == null) job.users++;
+        }
+
+        if (bytes != null) return PdfOutput.of(bytes).as(job.contentType, job.filename);
+        PdfOutput output;
+        try {
+            output = PdfOutput.of(file);
+        } catch (IOException e) {
+            release(job);
+            throw e;
+        }
+        output.closing(() -> release(job));
+        return output.as(job.contentType, job.filename);
+    }
+
+    @Scheduled(fixedDelayString = "${pdf.jobs.sweep-interval-ms:60000}")
+    public synchronized void sweepExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Job> it = jobs.values().iterator();
+        while (it.hasNext()) {
+            Job job = it.next();
+            if (isExpired(job, now)) {
+                it.remove();
+                discard(job);
+                expirations++;
+            }
+        }
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("jobs", jobs.size());
+        stats.put("residentBytes", residentBytes);
+        stats.put("spilledBytes", spilledBytes);
+        stats.put("maxTotalBytes", maxTotalBytes);
+        stats.put("evictions", evictions);
+        stats.put("expirations", expirations);
+        return stats;
+    }
+
+    private boolean isExpired(Job job, long now) {
+        return job.isFinished() && now - job.finishedAt > ttlMillis;
+    }
+
+    // Drops least recently used finished jobs until the results fit the budget again.
+    // The job that just finished is kept even if it alone is over budget, so it can still be fetched once.
+    private void evictOverBudget(Job justFinished) {
+        List<Job> victims = new ArrayList<>();
+        long total = residentBytes + spilledBytes;
+        for (Job job : jobs.values()) {
+            if (total <= maxTotalBytes) break;
+            if (job == justFinished || !job.isFinished() || job.resultSize == 0) continue;
+            victims.add(job);
+            total -= job.resultSize;
+        }
+        for (Job victim : victims) {
+            jobs.remove(victim.id);
+            discard(victim);
+            evictions++;
+        }
+    }
+
+    private void discard(Job job) {
+        if (job == null) return;
+        if (job.result != null) residentBytes -= job.resultSize;
+        if (job.resultFile != null) {
+            spilledBytes -= job.resultSize;
+            if (job.users > 0) job.orphaned = job.resultFile;
+            else deleteQuietly(job.resultFile);
+        }
+        job.result = null;
+        job.resultFile = null;
+        job.resultSize = 0;
+    }
+
+    // A download is done with the job's file: delete it if the job was dropped in the meantime
+    private synchronized void release(Job job) {
+        if (--job.users == 0 && job.orphaned != null) {
+            deleteQuietly(job.orphaned);
+            job.orphaned = null;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // Scratch dir is cleaned on restart anyway
+        }
+    }
+}
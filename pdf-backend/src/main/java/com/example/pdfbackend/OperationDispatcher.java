@@ -0,0 +1,162 @@
+package com.example.pdfbackend;
+
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.springframework.stereotype.Component;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+// Maps an operation name + form parameters onto the matching PdfProcessingService call.
+// Repeats are answered from the result cache, and identical requests that are still running
+// are coalesced into one computation. Everything else goes through admission control first;
+// the permit is held by the output until the result has been written. Computed results are
+// timed stage by stage (see PdfMetrics), and the work itself runs on PdfCpuPool.
+@Component
+public class OperationDispatcher {
+
+    private final PdfProcessingService pdfService;
+    private final AdmissionControl admission;
+    private final ResultCache cache;
+    private final RequestCoalescer coalescer;
+    private final PdfMetrics metrics;
+    private final PdfCpuPool cpu;
+
+    public OperationDispatcher(PdfProcessingService pdfService, AdmissionControl admission, ResultCache cache,
+                               RequestCoalescer coalescer, PdfMetrics metrics, PdfCpuPool cpu) {
+        this.pdfService = pdfService;
+        this.admission = admission;
+        this.cache = cache;
+        this.coalescer = coalescer;
+        this.metrics = metrics;
+        this.cpu = cpu;
+    }
+
+    public PdfOutput execute(OperationRequest request) throws Exception {
+        boolean coalesce = coalescer.covers(request.operation());
+        String key = cache.isEnabled() || coalesce ? request.contentKey() : null;
+        PdfOutput cached = cache.get(key);
+        if (cached != null) return cached;
+
+        if (coalesce) return coalescer.run(key, () -> compute(request, key));
+        return compute(request, key);
+    }
+
+    private PdfOutput compute(OperationRequest request, String cacheKey) throws Exception {
+        long queued = System.nanoTime();
+        AdmissionControl.Permit permit = admission.admit(request.operation(), request.inputBytes());
+        PdfMetrics.Sample sample = metrics.start(request, System.nanoTime() - queued);
+        try {
+            PdfOutput output = cpu.call(() -> dispatch(request));
+            return cache.capture(cacheKey, sample.track(output).closing(permit));
+        } catch (Exception e) {
+            sample.failed(e);
+            permit.close();
+            throw e;
+        }
+    }
+
+    private PdfOutput dispatch(OperationRequest request) throws Exception {
+        return switch (request.operation()) {
+            case CONVERT -> pdfService.generatePagesPerSheet(request.source(),
+                    request.intParam("pagesPerSheet"), request.param("paperSize"), request.param("mode"));
+            case MERGE -> {
+                if (request.sources().size() < 2) {
+                    throw new IllegalArgumentException("Please upload at least 2 files to merge.");
+                }
+                yield pdfService.mergePdfs(request.sources(), request.boolParam("dedupe", true));
+            }
+            case SPLIT -> pdfService.splitPdf(request.source(), request.param("pages"));
+            case COMPRESS -> pdfService.compressPdf(request.source(), request.param("level"));
+            case DELETE -> pdfService.deletePages(request.source(), request.param("pages"));
+            case REARRANGE -> pdfService.rearrangePages(request.source(), request.param("order"));
+            case ADD_PAGE_NUMBERS -> pdfService.addPageNumbers(request.source(), request.param("position"),
+                    request.param("margin"), request.intParam("startNumber"), request.param("format"));
+            case WATERMARK, HEADER_FOOTER -> pdfService.stamp(request.source(), stamps(request),
+                    request.param("pages", null), request.intParam("startNumber", 1));
+            case PIPELINE -> {
+                // Every step is checked before the document is loaded
+                List<PdfProcessingService.Step> steps = new ArrayList<>();
+                for (PipelineStep step : PipelineStep.parseAll(request.param("steps"))) {
+                    steps.add(pipelineStep(step.toRequest()));
+                }
+                yield pdfService.run(request.source(), steps);
+            }
+        };
+    }
+
+    // Page-level operations only: the ones that can work on a document another step produced
+    private PdfProcessingService.Step pipelineStep(OperationRequest step) {
+        return switch (step.operation()) {
+            case CONVERT -> pdfService.pagesPerSheetStep(step.intParam("pagesPerSheet"),
+                    step.param("paperSize"), step.param("mode"));
+            case DELETE -> pdfService.deleteStep(step.param("pages"));
+            case REARRANGE -> pdfService.rearrangeStep(step.param("order"));
+            case ADD_PAGE_NUMBERS -> pdfService.pageNumbersStep(step.param("position"),
+                    step.param("margin"), step.intParam("startNumber"), step.param("format"));
+            case WATERMARK, HEADER_FOOTER -> pdfService.stampStep(stamps(step),
+                    step.param("pages", null), step.intParam("startNumber", 1));
+            default -> throw new IllegalArgumentException(
+                    "'" + step.operation().path() + "' can't be used as a pipeline step.");
+        };
+    }
+
+    // Watermark: "text", or an image uploaded after the PDF (not in a pipeline, where there's
+    // nothing uploaded but the PDF). Header/footer: "header" and/or "footer". Text can contain
+    // {page} and {total}.
+    private static List<PdfStamper.Stamp> stamps(OperationRequest request) {
+        float margin = PdfStamper.margin(request.param("margin", "normal"));
+        float opacity = checkRange(request, "opacity", request.operation() == PdfOperation.WATERMARK ? 0.3f : 1, 0.01f, 1);
+
+        if (request.operation() == PdfOperation.WATERMARK) {
+            String text = request.param("text", null);
+            PdfSource image = request.sources().size() > 1 ? request.sources().get(1) : null;
+            if ((text == null) == (image == null)) {
+                throw new IllegalArgumentException("Please give either a watermark text or a watermark image.");
+            }
+            PdfStamper.Anchor anchor = PdfStamper.Anchor.parse(request.param("position", null), PdfStamper.Anchor.CENTER);
+            if (image != null) {
+                return List.of(new PdfStamper.Image(image.file(), checkRange(request, "scale", 0.5f, 0.01f, 1), opacity,
+                        request.floatParam("rotation", 0), anchor, margin));
+            }
+            return List.of(new PdfStamper.Text(text, PDType1Font.HELVETICA_BOLD, checkRange(request, "fontSize", 48, 1, 500),
+                    color(request.param("color", "#808080")), opacity, request.floatParam("rotation", 45), anchor, margin));
+        }
+
+        String header = request.param("header", null);
+        String footer = request.param("footer", null);
+        if (header == null && footer == null) {
+            throw new IllegalArgumentException("Please give a header or a footer text.");
+        }
+        float column = PdfStamper.Anchor.parse(request.param("align", "center"), PdfStamper.Anchor.CENTER).x();
+        float fontSize = checkRange(request, "fontSize", 10, 1, 200);
+        Color color = color(request.param("color", "#000000"));
+        List<PdfStamper.Stamp> stamps = new ArrayList<>();
+        if (header != null) stamps.add(new PdfStamper.Text(header, PDType1Font.HELVETICA, fontSize, color, opacity, 0,
+                new PdfStamper.Anchor(column, 1), margin));
+        if (footer != null) stamps.add(new PdfStamper.Text(footer, PDType1Font.HELVETICA, fontSize, color, opacity, 0,
+                new PdfStamper.Anchor(column, 0), margin));
+        return stamps;
+    }
+
+    private static float checkRange(OperationRequest request, String name, float fallback, float min, float max) {
+        float value = request.floatParam(name, fallback);
+        if (!(value >= min && value <= max)) {
+            throw new IllegalArgumentException("Parameter '" + name + "' must be between " + min + " and " + max + ".");
+        }
+        return value;
+    }
+
+    // "#RRGGBB"
+    private static Color color(String value) {
+        String hex = value.trim().startsWith("#") ? value.trim().substring(1) : value.trim();
+        if (hex.length() == 6) {
+            try {
+                return new Color(Integer.parseInt(hex, 16));
+            } catch (NumberFormatException ignored) {
+                // falls through to the error below
+            }
+        }
+        throw new IllegalArgumentException("Invalid color: " + value + " (expected #RRGGBB).");
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.pdfbackend;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// One operation to run: what to do, on which spooled uploads, with which form parameters.
+public record OperationRequest(PdfOperation operation, List<PdfSource> sources, Map<String, String> params) {
+
+    public PdfSource source() {
+        if (sources.isEmpty()) throw new IllegalArgumentException("No file uploaded.");
+        return sources.get(0);
+    }
+
+    public String param(String name) {
+        String value = params.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing parameter '" + name + "' for " + operation.path() + ".");
+        }
+        return value;
+    }
+
+    public int intParam(String name) {
+        String value = param(name);
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter '" + name + "' must be a number, got '" + value + "'.");
+        }
+    }
+
+    // Optional parameters: the fallback when missing or blank
+    public String param(String name, String fallback) {
+        String value = params.get(name);
+        return value == null || value.isBlank() ? fallback : value;
+    }
+
+    public int intParam(String name, int fallback) {
+        return params.get(name) == null || params.get(name).isBlank() ? fallback : intParam(name);
+    }
+
+    public float floatParam(String name, float fallback) {
+        String value = param(name, null);
+        if (value == null) return fallback;
+        try {
+            return Float.parseFloat(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter '" + name + "' must be a number, got '" + value + "'.");
+        }
+    }
+
+    public boolean boolParam(String name, boolean fallback) {
+        String value = param(name, null);
+        if (value == null) return fallback;
+        return switch (value.trim().toLowerCase(Locale.ROOT)) {
+            case "true" -> true;
+            case "false" -> false;
+            default -> throw new IllegalArgumentException("Parameter '" + name + "' must be true or false, got '" + value + "'.");
+        };
+    }
+
+    public long inputBytes() {
+        long total = 0;
+        for (PdfSource source : sources) total += source.size();
+        return total;
+    }
+
+    // sha256(operation + sorted params + each input's sha256): equal keys mean equal results
+    public String contentKey() throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(operation.path().getBytes(UTF_8));
+        for (Map.Entry<String, String> param : new TreeMap<>(params).entrySet()) {
+            digest.update(("\n" + param.getKey() + "=" + param.getValue()).getBytes(UTF_8));
+        }
+        // Order matters (merge), so the inputs are hashed in upload order
+        for (PdfSource source : sources) {
+            digest.update(("\n#" + source.sha256()).getBytes(UTF_8));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public void closeSources() {
+        sources.forEach(PdfSource::close);
+    }
+}
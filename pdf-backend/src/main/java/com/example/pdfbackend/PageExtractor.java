@@ -0,0 +1,300 @@
+package com.example.pdfbackend;
+
+import org.apache.pdfbox.contentstream.PDContentStream;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Copies a selection of pages for a new document (delete, rearrange, split). Moving the source
+// page objects across as they are takes along everything they point to, and the writer then saves
+// all of it, used or not:
+//  - links, popups and widgets that point at pages left behind (and through them at those pages'
+//    content, images and fonts)
+//  - a resource dictionary shared by the whole page tree - scanners often put every page's image
+//    into one - so a 3-page extract carries all 400 scans
+// So each kept page becomes a shallow copy (the source objects are never touched: split builds
+// several parts from one parsed source) where
+//  - annotations are copied too, pointing at the copied pages; a link to a page that isn't kept
+//    is dropped, and widgets lose their /Parent (the form's field tree isn't carried over anyway)
+//  - a resource dictionary shared with other pages is cut down to the names the page's content
+//    actually uses. Pages that use the same names get the same cut-down copy.
+// Heavy data (content, images, fonts) is never copied, only referenced.
+final class PageExtractor {
+
+    private static final COSName PROPERTIES = COSName.getPDFName("Properties");
+    private static final COSName LINK = COSName.getPDFName("Link");
+    private static final COSName POPUP = COSName.getPDFName("Popup");
+    private static final COSName IRT = COSName.getPDFName("IRT");
+    // The resource categories content refers to by name; anything else is kept as it is
+    private static final Set<COSName> NAMED = Set.of(COSName.FONT, COSName.XOBJECT, COSName.EXT_G_STATE,
+            COSName.COLORSPACE, COSName.PATTERN, COSName.SHADING, PROPERTIES);
+    private static final Set<String> DEVICE_SPACES = Set.of("DeviceGray", "DeviceRGB", "DeviceCMYK", "Pattern",
+            "G", "RGB", "CMYK");
+
+    private final PageIndex pages;
+    private final boolean prune;
+    // Source page -> its first copy, for the links that point at it
+    private final Map<COSDictionary, COSDictionary> copies = new IdentityHashMap<>();
+    // How many source pages use each resource dictionary (and each category in them)
+    private final Map<COSDictionary, Integer> uses = new IdentityHashMap<>();
+    // Source resources -> names used -> cut-down copy
+    private final Map<COSDictionary, Map<Map<COSName, Set<COSName>>, COSDictionary>> pruned = new IdentityHashMap<>();
+
+    private PageExtractor(PageIndex pages, boolean prune) {
+        this.pages = pages;
+        this.prune = prune;
+    }
+
+    // 0-based source pages, in output order; repeats are fine
+    static List<PDPage> extract(PageIndex pages, int[] order) {
+        BitSet kept = new BitSet(pages.size());
+        for (int page : order) kept.set(page);
+        // With every page kept there's nothing to leave behind
+        PageExtractor extractor = new PageExtractor(pages, kept.cardinality() < pages.size());
+        if (extractor.prune) extractor.countUses();
+
+        List<COSDictionary> result = new ArrayList<>(order.length);
+        for (int page : order) {
+            COSDictionary source = pages.page(page).getCOSObject();
+            COSDictionary copy = extractor.copyPage(source);
+            extractor.copies.putIfAbsent(source, copy);
+            result.add(copy);
+        }
+        // Once every copy exists, so links can point at the pages after them
+        List<PDPage> out = new ArrayList<>(result.size());
+        for (COSDictionary copy : result) {
+            extractor.copyAnnotations(copy);
+            out.add(new PDPage(copy));
+        }
+        return out;
+    }
+
+    // ===== PAGES =====
+
+    private COSDictionary copyPage(COSDictionary source) {
+        COSDictionary copy = new COSDictionary(source);
+        copy.removeItem(COSName.PARENT); // set again by addPage
+        copy.removeItem(COSName.B); // article beads: the threads aren't carried over
+        if (prune && source.getDictionaryObject(COSName.RESOURCES) instanceof COSDictionary resources
+                && isShared(resources)) {
+            COSDictionary cut = pruneResources(new PDPage(source), resources);
+            if (cut != null) copy.setItem(COSName.RESOURCES, cut);
+        }
+        return copy;
+    }
+
+    private void countUses() {
+        for (int i = 0; i < pages.size(); i++) {
+            if (!(pages.page(i).getCOSObject().getDictionaryObject(COSName.RESOURCES) instanceof COSDictionary resources)) {
+                continue;
+            }
+            if (uses.merge(resources, 1, Integer::sum) > 1) continue; // its categories are counted already
+            for (COSName category : NAMED) {
+                if (resources.getDictionaryObject(category) instanceof COSDictionary names) uses.merge(names, 1, Integer::sum);
+            }
+        }
+    }
+
+    private boolean isShared(COSDictionary resources) {
+        if (uses.getOrDefault(resources, 0) > 1) return true;
+        for (COSName category : NAMED) {
+            if (resources.getDictionaryObject(category) instanceof COSDictionary names
+                    && uses.getOrDefault(names, 0) > 1) return true;
+        }
+        return false;
+    }
+
+    // null = keep the resources as they are (content we can't read, Type3 fonts drawing with them...)
+    private COSDictionary pruneResources(PDPage page, COSDictionary resources) {
+        Map<COSName, Set<COSName>> used = new HashMap<>();
+        try {
+            if (!scan(page, resources, used, new HashSet<>())) return null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        return pruned.computeIfAbsent(resources, r -> new HashMap<>()).computeIfAbsent(used, names -> {
+            COSDictionary cut = new COSDictionary();
+            for (Map.Entry<COSName, COSBase> entry : resources.entrySet()) {
+                if (!NAMED.contains(entry.getKey())) {
+                    cut.setItem(entry.getKey(), entry.getValue());
+                    continue;
+                }
+                Set<COSName> wanted = names.get(entry.getKey());
+                if (wanted == null || !(resources.getDictionaryObject(entry.getKey()) instanceof COSDictionary all)) continue;
+                COSDictionary some = new COSDictionary();
+                for (COSName name : wanted) {
+                    COSBase value = all.getItem(name);
+                    if (value != null) some.setItem(name, value);
+                }
+                if (some.size() > 0) cut.setItem(entry.getKey(), some);
+            }
+            return cut;
+        });
+    }
+
+    // Collects the resource names the content uses. False if it can't tell.
+    private boolean scan(PDContentStream content, COSDictionary resources, Map<COSName, Set<COSName>> used,
+                         Set<COSStream> seen) throws IOException {
+        PDFStreamParser parser = new PDFStreamParser(content);
+        List<COSBase> operands = new ArrayList<>();
+        Object token;
+        while ((token = parser.parseNextToken()) != null) {
+            if (token instanceof COSBase operand) {
+                operands.add(operand);
+                continue;
+            }
+            if (!(token instanceof Operator operator)) continue;
+            switch (operator.getName()) {
+                case "Do" -> {
+                    COSName name = nameAt(operands, 0);
+                    if (name != null && !useXObject(name, resources, used, seen)) return false;
+                }
+                case "Tf" -> {
+                    COSName name = nameAt(operands, 0);
+                    if (name != null) {
+                        use(used, COSName.FONT, name);
+                        // Type3 glyphs without resources of their own draw with the page's
+                        if (lookup(resources, COSName.FONT, name) instanceof COSDictionary font
+                                && COSName.TYPE3.equals(font.getCOSName(COSName.SUBTYPE))
+                                && !font.containsKey(COSName.RESOURCES)) return false;
+                    }
+                }
+                case "gs" -> useNamed(used, COSName.EXT_G_STATE, nameAt(operands, 0));
+                case "sh" -> useNamed(used, COSName.SHADING, nameAt(operands, 0));
+                case "cs", "CS" -> {
+                    COSName name = nameAt(operands, 0);
+                    if (name != null && !DEVICE_SPACES.contains(name.getName())) use(used, COSName.COLORSPACE, name);
+                }
+                case "scn", "SCN" -> useNamed(used, COSName.PATTERN, nameAt(operands, operands.size() - 1));
+                case "BDC", "DP" -> useNamed(used, PROPERTIES, nameAt(operands, 1));
+                case "BI" -> {
+                    COSDictionary image = operator.getImageParameters();
+                    COSBase space = image == null ? null : image.getDictionaryObject(COSName.CS, COSName.COLORSPACE);
+                    if (space instanceof COSName name && !DEVICE_SPACES.contains(name.getName())) {
+                        use(used, COSName.COLORSPACE, name);
+                    }
+                }
+                default -> {
+                }
+            }
+            operands.clear();
+        }
+        return true;
+    }
+
+    private boolean useXObject(COSName name, COSDictionary resources, Map<COSName, Set<COSName>> used,
+                               Set<COSStream> seen) throws IOException {
+        use(used, COSName.XOBJECT, name);
+        // A form without resources of its own draws with the page's
+        if (lookup(resources, COSName.XOBJECT, name) instanceof COSStream form
+                && COSName.FORM.equals(form.getCOSName(COSName.SUBTYPE))
+                && !form.containsKey(COSName.RESOURCES)
+                && seen.add(form)) {
+            return scan(new PDFormXObject(form), resources, used, seen);
+        }
+        return true;
+    }
+
+    private static COSBase lookup(COSDictionary resources, COSName category, COSName name) {
+        return resources.getDictionaryObject(category) instanceof COSDictionary names ? names.getDictionaryObject(name) : null;
+    }
+
+    private static COSName nameAt(List<COSBase> operands, int index) {
+        return index >= 0 && index < operands.size() && operands.get(index) instanceof COSName name ? name : null;
+    }
+
+    private static void useNamed(Map<COSName, Set<COSName>> used, COSName category, COSName name) {
+        if (name != null) use(used, category, name);
+    }
+
+    private static void use(Map<COSName, Set<COSName>> used, COSName category, COSName name) {
+        used.computeIfAbsent(category, c -> new HashSet<>()).add(name);
+    }
+
+    // ===== ANNOTATIONS =====
+
+    private void copyAnnotations(COSDictionary page) {
+        if (!(page.getDictionaryObject(COSName.ANNOTS) instanceof COSArray annots)) return;
+        Map<COSDictionary, COSDictionary> annotCopies = new IdentityHashMap<>();
+        COSArray kept = new COSArray();
+        for (int i = 0; i < annots.size(); i++) {
+            if (!(annots.getObject(i) instanceof COSDictionary annot) || annotCopies.containsKey(annot)) continue;
+            if (LINK.equals(annot.getCOSName(COSName.SUBTYPE)) && pointsAway(annot)) continue;
+            COSDictionary copy = new COSDictionary(annot);
+            annotCopies.put(annot, copy);
+            kept.add(copy);
+        }
+        for (COSDictionary copy : annotCopies.values()) {
+            copy.setItem(COSName.P, page);
+            boolean popup = POPUP.equals(copy.getCOSName(COSName.SUBTYPE));
+            // A popup's /Parent is its markup annotation; anything else's is a form field
+            relink(copy, COSName.PARENT, popup ? annotCopies : Map.of());
+            relink(copy, POPUP, annotCopies);
+            relink(copy, IRT, annotCopies);
+            // Links to pages left behind are gone already; a button's action can still point there
+            if (copy.getDictionaryObject(COSName.DEST) instanceof COSArray dest) {
+                copy.setItem(COSName.DEST, retarget(dest));
+            }
+            if (copy.getDictionaryObject(COSName.A) instanceof COSDictionary action && isGoTo(action)
+                    && action.getDictionaryObject(COSName.D) instanceof COSArray dest) {
+                COSDictionary actionCopy = new COSDictionary(action);
+                actionCopy.setItem(COSName.D, retarget(dest));
+                copy.setItem(COSName.A, actionCopy.getItem(COSName.D) == null ? null : actionCopy);
+            }
+        }
+        page.setItem(COSName.ANNOTS, kept);
+    }
+
+    private static void relink(COSDictionary annot, COSName key, Map<COSDictionary, COSDictionary> annotCopies) {
+        if (!annot.containsKey(key)) return;
+        COSDictionary target = annot.getDictionaryObject(key) instanceof COSDictionary d ? annotCopies.get(d) : null;
+        if (target != null) annot.setItem(key, target);
+        else annot.removeItem(key);
+    }
+
+    // An explicit destination (or GoTo action) on a page that isn't kept
+    private boolean pointsAway(COSDictionary link) {
+        COSBase dest = link.getDictionaryObject(COSName.DEST);
+        if (dest == null && link.getDictionaryObject(COSName.A) instanceof COSDictionary action && isGoTo(action)) {
+            dest = action.getDictionaryObject(COSName.D);
+        }
+        return dest instanceof COSArray array && targetOf(array) instanceof COSDictionary target && !copies.containsKey(target);
+    }
+
+    // null when the page isn't kept
+    private COSArray retarget(COSArray dest) {
+        if (!(targetOf(dest) instanceof COSDictionary target)) return dest;
+        if (!copies.containsKey(target)) return null;
+        COSArray copy = new COSArray();
+        copy.addAll(dest);
+        copy.set(0, copies.get(target));
+        return copy;
+    }
+
+    private static COSBase targetOf(COSArray dest) {
+        if (dest.size() == 0) return null;
+        COSBase first = dest.get(0);
+        return first instanceof COSObject indirect ? indirect.getObject() : first;
+    }
+
+    private static boolean isGoTo(COSDictionary action) {
+        return "GoTo".equals(action.getNameAsString(COSName.S));
+    }
+}
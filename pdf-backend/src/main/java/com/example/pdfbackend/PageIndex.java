@@ -0,0 +1,79 @@
+package com.example.pdfbackend;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageTree;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+// Flat, array-backed view of a document's pages, built with a single walk of the page tree.
+// PDDocument.getPage(i) searches the tree (and allocates the kids list) on every call, which
+// makes "for each page: getPage(i)" quadratic on big documents. Build this once per loaded
+// document and look pages up by index instead.
+//
+// While walking we also copy inherited attributes (Resources, MediaBox, CropBox, Rotate) onto
+// each page dictionary. That makes every page self-contained, so it can be moved into another
+// document without losing what it used to inherit from its old parent nodes.
+public final class PageIndex {
+
+    private static final COSName[] INHERITABLE = {
+            COSName.RESOURCES, COSName.MEDIA_BOX, COSName.CROP_BOX, COSName.ROTATE
+    };
+
+    private final PDPage[] pages;
+    private final PDRectangle[] cropBoxes;
+
+    private PageIndex(PDPage[] pages, PDRectangle[] cropBoxes) {
+        this.pages = pages;
+        this.cropBoxes = cropBoxes;
+    }
+
+    public static PageIndex of(PDDocument doc) {
+        PDPageTree tree = doc.getPages();
+        PDPage[] pages = new PDPage[tree.getCount()];
+        PDRectangle[] cropBoxes = new PDRectangle[pages.length];
+
+        int i = 0;
+        for (PDPage page : tree) {
+            if (i == pages.length) break; // /Count was lower than the real number of pages
+            materializeInherited(page.getCOSObject());
+            pages[i] = page;
+            // Effective box: CropBox clipped to MediaBox (PDFBox falls back to MediaBox)
+            cropBoxes[i] = page.getCropBox();
+            i++;
+        }
+
+        if (i < pages.length) {
+            // /Count was higher than the real number of pages - trust the walk
+            PDPage[] walkedPages = new PDPage[i];
+            PDRectangle[] walkedBoxes = new PDRectangle[i];
+            System.arraycopy(pages, 0, walkedPages, 0, i);
+            System.arraycopy(cropBoxes, 0, walkedBoxes, 0, i);
+            return new PageIndex(walkedPages, walkedBoxes);
+        }
+        return new PageIndex(pages, cropBoxes);
+    }
+
+    public int size() {
+        return pages.length;
+    }
+
+    // 0-based, like PDDocument.getPage
+    public PDPage page(int index0) {
+        return pages[index0];
+    }
+
+    public PDRectangle cropBox(int index0) {
+        return cropBoxes[index0];
+    }
+
+    private static void materializeInherited(COSDictionary page) {
+        for (COSName key : INHERITABLE) {
+            if (page.containsKey(key)) continue;
+            COSBase inherited = PDPageTree.getInheritableAttribute(page, key);
+            if (inherited != null) page.setItem(key, inherited);
+        }
+    }
+}
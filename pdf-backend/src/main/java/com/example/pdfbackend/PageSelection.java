@@ -0,0 +1,163 @@
+package com.example.pdfbackend;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+
+// A compiled page-selection expression, checked against the document's page count.
+// Used by delete, rearrange and split so they all understand the same syntax:
+//
+//   5          one page                    odd / even   every other page
+//   3-7        a range                     all          every page
+//   7-3        a descending range          reverse      every page, last to first
+//   5- / -5    open ranges                 last         the last page (also inside ranges: "5-last")
+//   1-20:3     a range with a step (1, 4, 7, ... 19); works on open ranges and odd/even too
+//
+// Terms are comma-separated and kept in the order given (repeats allowed, e.g. for rearrange).
+// The result is just an int[] of 0-based pages plus a BitSet, so even "1-100000" costs O(pages).
+public final class PageSelection {
+
+    // Hard cap on the selection length, so "1-,1-,1-,..." can't blow up the heap
+    static final int MAX_LENGTH = 100_000;
+
+    private final int[] pages;
+    private final int pageCount;
+    private BitSet set;
+
+    private PageSelection(int[] pages, int pageCount) {
+        this.pages = pages;
+        this.pageCount = pageCount;
+    }
+
+    public static PageSelection compile(String expression, int pageCount) {
+        if (expression == null || expression.isBlank()) {
+            throw new IllegalArgumentException("No pages selected.");
+        }
+        if (pageCount <= 0) throw new IllegalArgumentException("This PDF has no pages.");
+
+        Builder out = new Builder();
+        for (String rawTerm : expression.split(",")) {
+            String term = rawTerm.trim().toLowerCase(Locale.ROOT);
+            if (term.isEmpty()) continue;
+            compileTerm(term, pageCount, out);
+        }
+        if (out.size == 0) throw new IllegalArgumentException("No pages selected: " + expression);
+        return new PageSelection(Arrays.copyOf(out.pages, out.size), pageCount);
+    }
+
+    // "1-20:3" -> range "1-20", step 3
+    private static void compileTerm(String term, int pageCount, Builder out) {
+        int step = 1;
+        int colon = term.indexOf(':');
+        String body = term;
+        if (colon >= 0) {
+            step = parseStep(term.substring(colon + 1).trim(), term);
+            body = term.substring(0, colon).trim();
+        }
+
+        switch (body) {
+            case "all", "*" -> out.range(1, pageCount, step);
+            case "odd" -> out.range(1, pageCount, 2 * step);
+            case "even" -> {
+                if (pageCount >= 2) out.range(2, pageCount, 2 * step);
+            }
+            case "reverse" -> out.range(pageCount, 1, step);
+            default -> {
+                int dash = body.indexOf('-');
+                if (dash < 0) {
+                    int page = parsePage(body, pageCount, term);
+                    out.range(page, page, 1);
+                } else {
+                    String left = body.substring(0, dash).trim();
+                    String right = body.substring(dash + 1).trim();
+                    int from = left.isEmpty() ? 1 : parsePage(left, pageCount, term);
+                    int to = right.isEmpty() ? pageCount : parsePage(right, pageCount, term);
+                    out.range(from, to, step);
+                }
+            }
+        }
+    }
+
+    private static int parsePage(String value, int pageCount, String term) {
+        int page;
+        if (value.equals("last") || value.equals("end")) {
+            page = pageCount;
+        } else {
+            try {
+                page = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid page selection: " + term);
+            }
+        }
+        if (page < 1 || page > pageCount) {
+            throw new IllegalArgumentException("Page " + value + " is outside 1-" + pageCount + " (in \"" + term + "\").");
+        }
+        return page;
+    }
+
+    private static int parseStep(String value, String term) {
+        try {
+            int step = Integer.parseInt(value);
+            if (step > 0) return step;
+        } catch (NumberFormatException ignored) {
+            // falls through to the error below
+        }
+        throw new IllegalArgumentException("Invalid step in page selection: " + term);
+    }
+
+    // 0-based pages in selection order. Shared, don't modify.
+    public int[] pages() {
+        return pages;
+    }
+
+    public int size() {
+        return pages.length;
+    }
+
+    public int pageCount() {
+        return pageCount;
+    }
+
+    // 0-based
+    public boolean contains(int page0) {
+        return asSet().get(page0);
+    }
+
+    public BitSet asSet() {
+        if (set == null) {
+            BitSet bits = new BitSet(pageCount);
+            for (int page : pages) bits.set(page);
+            set = bits;
+        }
+        return set;
+    }
+
+    // True for a plain ascending run like 3,4,5,6
+    public boolean isContiguous() {
+        for (int i = 1; i < pages.length; i++) {
+            if (pages[i] != pages[i - 1] + 1) return false;
+        }
+        return true;
+    }
+
+    // Growable int[], so compiling doesn't box every page into a List<Integer>
+    private static final class Builder {
+        int[] pages = new int[16];
+        int size;
+
+        // 1-based, inclusive; descending when from > to
+        void range(int from, int to, int step) {
+            int count = Math.abs(to - from) / step + 1;
+            if ((long) size + count > MAX_LENGTH) {
+                throw new IllegalArgumentException("Page selection is too long (more than " + MAX_LENGTH + " pages).");
+            }
+            if (size + count > pages.length) {
+                pages = Arrays.copyOf(pages, Math.max(size + count, pages.length * 2));
+            }
+            int direction = from <= to ? step : -step;
+            for (int i = 0, page = from; i < count; i++, page += direction) {
+                pages[size++] = page - 1;
+            }
+        }
+    }
+}
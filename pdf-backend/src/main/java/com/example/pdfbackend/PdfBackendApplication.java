@@ -2,8 +2,12 @@ package com.example.pdfbackend;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
+@ConfigurationPropertiesScan
 public class PdfBackendApplication {
     public static void main(String[] args) {
         SpringApplication.run(PdfBackendApplication.class, args);
@@ -0,0 +1,484 @@
+package com.example.pdfbackend;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+
+// Makes documents smaller by rebuilding their images, in four stages:
+//  1. parse  - load the upload
+//  2. scan   - find every image XObject the pages use (also inside forms) and hash the raw
+//              streams, so identical images are handled - and stored - only once
+//  3. images - downsample past the level's DPI and re-encode as JPEG, in parallel on the shared workers;
+//              decoded rasters are big (a 600dpi A4 scan is ~140MB), so how many are decoded at once is
+//              capped by a server-wide byte budget, and what's in use is charged to AdmissionControl
+//  4. save   - into a scratch file, so the size is known before anything is sent
+// If that doesn't beat the upload, the upload is sent back untouched.
+@Component
+public class PdfCompressor {
+
+    public enum Level {
+        LOW(200, 0.85f),
+        MEDIUM(150, 0.7f),
+        HIGH(96, 0.5f);
+
+        // Images are never left with less than this many pixels per inch of page
+        final int dpi;
+        final float jpegQuality;
+
+        Level(int dpi, float jpegQuality) {
+            this.dpi = dpi;
+            this.jpegQuality = jpegQuality;
+        }
+
+        public static Level parse(String level) {
+            if (level == null) return MEDIUM;
+            return switch (level.trim().toLowerCase(Locale.ROOT)) {
+                case "low", "less", "light" -> LOW;
+                case "high", "extreme", "strong", "max" -> HIGH;
+                default -> MEDIUM;
+            };
+        }
+    }
+
+    // Icons, bullets, rules... not worth a decode
+    private static final int MIN_IMAGE_PIXELS = 64 * 64;
+
+    // Entries worth keeping when an image stream is swapped for its JPEG version
+    private static final COSName[] CARRIED_OVER = {
+            COSName.STRUCT_PARENT, COSName.INTERPOLATE, COSName.METADATA,
+            COSName.getPDFName("OC"), COSName.getPDFName("Intent")
+    };
+
+    private final PdfSpool spool;
+    private final PdfWorkers workers;
+    private final AdmissionControl admission;
+    // Decoded image bytes (in KB) all compressions together may hold at once
+    private final Semaphore decodeBudget;
+    private final int decodeBudgetKb;
+
+    public PdfCompressor(
+            PdfSpool spool,
+            PdfWorkers workers,
+            AdmissionControl admission,
+            @Value("${pdf.compress.decode-budget:128MB}") DataSize decodeBudget
+    ) {
+        this.spool = spool;
+        this.workers = workers;
+        this.admission = admission;
+        this.decodeBudgetKb = (int) Math.max(1, Math.min(Integer.MAX_VALUE, decodeBudget.toKilobytes()));
+        this.decodeBudget = new Semaphore(decodeBudgetKb, true);
+    }
+
+    public PdfOutput compress(PdfSource source, Level level) throws Exception {
+        Stages stages = new Stages();
+        Path compressed = spool.newScratchFile("compressed-", ".pdf");
+        ImageStats stats;
+        try (PDDocument doc = source.load()) {
+            stages.lap("parse");
+
+            List<ImageGroup> images = scan(doc);
+            stages.lap("scan");
+
+            stats = recompress(doc, images, level);
+            stages.lap("images");
+
+            doc.save(compressed.toFile());
+            stages.lap("save");
+        } catch (Exception e) {
+            Files.deleteIfExists(compressed);
+            throw e;
+        }
+
+        long originalSize = source.size();
+        long compressedSize = Files.size(compressed);
+        PdfOutput output;
+        if (compressedSize < originalSize) {
+            output = PdfOutput.of(compressed).closing(() -> Files.deleteIfExists(compressed));
+        } else {
+            // Nothing to gain (already optimized, or no images) - don't make it bigger
+            Files.deleteIfExists(compressed);
+            output = PdfOutput.of(source.file());
+            compressedSize = originalSize;
+        }
+
+        double saved = originalSize == 0 ? 0 : 100.0 * (originalSize - compressedSize) / originalSize;
+        return output
+                .header("X-Original-Size", Long.toString(originalSize))
+                .header("X-Compressed-Size", Long.toString(compressedSize))
+                .header("X-Size-Reduction", String.format(Locale.ROOT, "%.1f%%", saved))
+                .header("X-Compression-Images", stats.toString())
+                .header("Server-Timing", stages.toString());
+    }
+
+    // ===== SCAN =====
+
+    // Every distinct image, with all the places (XObject dictionary + name) it's referenced from
+    private List<ImageGroup> scan(PDDocument doc) throws IOException {
+        Map<ImageKey, ImageGroup> groups = new LinkedHashMap<>();
+        Map<COSStream, ImageKey> keys = new IdentityHashMap<>();
+        // Resource dictionaries are often shared between pages - walk each one again only for a bigger page
+        Map<COSDictionary, Float> visited = new IdentityHashMap<>();
+
+        PageIndex pages = PageIndex.of(doc);
+        for (int i = 0; i < pages.size(); i++) {
+            PDRectangle box = pages.cropBox(i);
+            float pageInches = Math.max(box.getWidth(), box.getHeight()) / 72f;
+            COSBase resources = pages.page(i).getCOSObject().getDictionaryObject(COSName.RESOURCES);
+            if (resources instanceof COSDictionary dict) {
+                scanResources(dict, pageInches, groups, keys, visited);
+            }
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    private void scanResources(COSDictionary resources, float pageInches, Map<ImageKey, ImageGroup> groups,
+                               Map<COSStream, ImageKey> keys, Map<COSDictionary, Float> visited) throws IOException {
+        Float seen = visited.get(resources);
+        if (seen != null && seen >= pageInches) return;
+        visited.put(resources, pageInches);
+
+        if (!(resources.getDictionaryObject(COSName.XOBJECT) instanceof COSDictionary xobjects)) return;
+        for (COSName name : xobjects.keySet()) {
+            if (!(xobjects.getDictionaryObject(name) instanceof COSStream stream)) continue;
+            COSName subtype = stream.getCOSName(COSName.SUBTYPE);
+
+            if (COSName.FORM.equals(subtype)) {
+                // Forms have their own resources (and can nest further)
+                if (stream.getDictionaryObject(COSName.RESOURCES) instanceof COSDictionary formResources) {
+                    scanResources(formResources, pageInches, groups, keys, visited);
+                }
+            } else if (COSName.IMAGE.equals(subtype) && !stream.getBoolean(COSName.IMAGE_MASK, false)) {
+                ImageKey key = keys.get(stream);
+                if (key == null) {
+                    key = ImageKey.of(stream);
+                    keys.put(stream, key);
+                }
+                ImageGroup group = groups.computeIfAbsent(key, k -> ImageGroup.of(stream));
+                group.streams.put(stream, Boolean.TRUE);
+                group.uses.add(new ImageUse(xobjects, name));
+                group.pageInches = Math.max(group.pageInches, pageInches);
+            }
+        }
+    }
+
+    // Same bytes + same decoding parameters = same image. Parameters are compared by value;
+    // streams inside them (ICC profiles, palettes, masks) only match when they're the same object.
+    private record ImageKey(String digest, int width, int height, int bitsPerComponent,
+                            Object filter, Object colorSpace, Object decode, Object decodeParms,
+                            Object softMask, Object mask) {
+
+        static ImageKey of(COSStream stream) throws IOException {
+            return new ImageKey(
+                    sha256(stream),
+                    stream.getInt(COSName.WIDTH),
+                    stream.getInt(COSName.HEIGHT),
+                    stream.getInt(COSName.BITS_PER_COMPONENT),
+                    valueOf(stream.getFilters(), 0),
+                    valueOf(stream.getDictionaryObject(COSName.COLORSPACE), 0),
+                    valueOf(stream.getDictionaryObject(COSName.DECODE), 0),
+                    valueOf(stream.getDictionaryObject(COSName.DECODE_PARMS), 0),
+                    valueOf(stream.getDictionaryObject(COSName.SMASK), 0),
+                    valueOf(stream.getDictionaryObject(COSName.MASK), 0));
+        }
+
+        // Something with value equality for names, numbers, arrays and plain dictionaries
+        private static Object valueOf(COSBase base, int depth) {
+            if (base instanceof COSObject indirect) base = indirect.getObject();
+            if (base == null || base instanceof COSStream || depth > 8) return base;
+            if (base instanceof COSArray array) {
+                List<Object> values = new ArrayList<>(array.size());
+                for (int i = 0; i < array.size(); i++) values.add(valueOf(array.get(i), depth + 1));
+                return values;
+            }
+            if (base instanceof COSDictionary dict) {
+                Map<String, Object> values = new TreeMap<>();
+                for (Map.Entry<COSName, COSBase> entry : dict.entrySet()) {
+                    values.put(entry.getKey().getName(), valueOf(entry.getValue(), depth + 1));
+                }
+                return values;
+            }
+            if (base instanceof COSString string) return HexFormat.of().formatHex(string.getBytes()); // palettes
+            return base.toString(); // COSName{..}, COSInt{..}...
+        }
+
+        private static String sha256(COSStream stream) throws IOException {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = stream.createRawInputStream()) {
+                int n;
+                while ((n = in.read(buffer)) > 0) digest.update(buffer, 0, n);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        }
+    }
+
+    private record ImageUse(COSDictionary xobjects, COSName name) {
+    }
+
+    private static final class ImageGroup {
+        // The first copy found is the one that's kept (or replaced)
+        final COSStream image;
+        // Heap while it's being recompressed, in KB
+        final int decodeKb;
+        final Map<COSStream, Boolean> streams = new IdentityHashMap<>();
+        final List<ImageUse> uses = new ArrayList<>();
+        // Largest page it's drawn on; the image can't be displayed wider than that
+        float pageInches;
+
+        private ImageGroup(COSStream image, int decodeKb) {
+            this.image = image;
+            this.decodeKb = decodeKb;
+        }
+
+        // The decoded raster is 1 byte per pixel for gray, 4 (int RGB) for everything else; the
+        // scaled copies and the JPEG add up to about half of that again
+        static ImageGroup of(COSStream image) {
+            long pixels = (long) Math.max(0, image.getInt(COSName.WIDTH)) * Math.max(0, image.getInt(COSName.HEIGHT));
+            int bytesPerPixel = COSName.DEVICEGRAY.equals(image.getDictionaryObject(COSName.COLORSPACE)) ? 1 : 4;
+            long kb = pixels * bytesPerPixel * 3 / 2 / 1024;
+            return new ImageGroup(image, (int) Math.max(1, Math.min(Integer.MAX_VALUE, kb)));
+        }
+    }
+
+    // ===== IMAGES =====
+
+    // Decoding and creating the new streams touch the document, which isn't thread safe, so those
+    // parts run under the document's lock. Scaling and JPEG encoding - the expensive part - don't.
+    // An image is only handed to the workers once its decode fits the budget; we wait for that
+    // here, so the workers never block. One bigger than the whole budget runs alone.
+    private ImageStats recompress(PDDocument doc, List<ImageGroup> images, Level level) throws Exception {
+        List<ForkJoinTask<COSStream>> tasks = new ArrayList<>(images.size());
+        try {
+            for (ImageGroup group : images) {
+                int kb = Math.min(group.decodeKb, decodeBudgetKb);
+                decodeBudget.acquire(kb);
+                AdmissionControl.Permit charge = admission.charge(kb * 1024L);
+                try {
+                    tasks.add(workers.pool().submit(() -> {
+                        try {
+                            return recompressOne(doc, group, level);
+                        } finally {
+                            charge.close();
+                            decodeBudget.release(kb);
+                        }
+                    }));
+                } catch (RuntimeException | Error e) {
+                    charge.close();
+                    decodeBudget.release(kb);
+                    throw e;
+                }
+            }
+        } catch (Exception | Error e) {
+            // The document gets closed after this - let the ones already running finish first
+            for (ForkJoinTask<COSStream> task : tasks) task.quietlyJoin();
+            throw e;
+        }
+
+        // Wait for all of them before touching any dictionaries - the workers still read from the document
+        COSStream[] replacements = new COSStream[images.size()];
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                replacements[i] = tasks.get(i).get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Error error) throw error;
+                // Undecodable or unsupported image: leave that one as it was
+            }
+        }
+
+        ImageStats stats = new ImageStats();
+        stats.unique = images.size();
+        for (int i = 0; i < images.size(); i++) {
+            ImageGroup group = images.get(i);
+            COSStream keep = replacements[i] != null ? replacements[i] : group.image;
+            if (replacements[i] != null) stats.recompressed++;
+            stats.duplicates += group.streams.size() - 1;
+            for (ImageUse use : group.uses) {
+                use.xobjects().setItem(use.name(), keep);
+            }
+        }
+        return stats;
+    }
+
+    // The smaller JPEG version of the image, or null to keep the original
+    private COSStream recompressOne(PDDocument doc, ImageGroup group, Level level) throws IOException {
+        COSStream stream = group.image;
+        int width = stream.getInt(COSName.WIDTH);
+        int height = stream.getInt(COSName.HEIGHT);
+        long originalLength = stream.getLength();
+
+        if ((long) width * height < MIN_IMAGE_PIXELS) return null;
+        // 1-bit images (scans of text) are far better off as CCITT/JBIG2 than as JPEG
+        if (stream.getInt(COSName.BITS_PER_COMPONENT) == 1) return null;
+        // Transparency doesn't survive JPEG; masked images stay as they are
+        if (stream.containsKey(COSName.SMASK) || stream.containsKey(COSName.MASK)) return null;
+
+        double scale = 1.0;
+        if (group.pageInches > 0) {
+            scale = Math.min(1.0, group.pageInches * level.dpi / Math.max(width, height));
+        }
+        boolean downsample = scale < 0.95;
+        boolean alreadyJpeg = COSName.DCT_DECODE.equals(stream.getFilters());
+        // Re-encoding a JPEG at about the same resolution only pays off at the stronger levels
+        if (!downsample && alreadyJpeg && level == Level.LOW) return null;
+
+        // Plain RGB/gray JPEGs are decoded straight from their bytes, outside the lock.
+        // Anything else goes through PDFBox, which reads from the document.
+        BufferedImage decoded = null;
+        boolean gray;
+        byte[] jpegBytes = null;
+        synchronized (doc) {
+            COSBase colorSpace = stream.getDictionaryObject(COSName.COLORSPACE);
+            gray = COSName.DEVICEGRAY.equals(colorSpace);
+            boolean plainJpeg = alreadyJpeg && (gray || COSName.DEVICERGB.equals(colorSpace))
+                    && !stream.containsKey(COSName.DECODE) && !stream.containsKey(COSName.DECODE_PARMS);
+            if (plainJpeg) {
+                try (InputStream in = stream.createRawInputStream()) {
+                    jpegBytes = in.readAllBytes();
+                }
+            } else {
+                PDImageXObject image = new PDImageXObject(new PDStream(stream), null);
+                gray = image.getColorSpace().getNumberOfComponents() == 1;
+                decoded = image.getImage();
+            }
+        }
+        if (jpegBytes != null) {
+            decoded = ImageIO.read(new ByteArrayInputStream(jpegBytes));
+            if (decoded == null) return null;
+        }
+
+        int targetWidth = Math.max(1, (int) Math.round(decoded.getWidth() * scale));
+        int targetHeight = Math.max(1, (int) Math.round(decoded.getHeight() * scale));
+        BufferedImage scaled = resize(decoded, targetWidth, targetHeight, gray);
+        byte[] jpeg = encodeJpeg(scaled, level.jpegQuality);
+        if (jpeg.length >= originalLength) return null;
+
+        synchronized (doc) {
+            PDImageXObject replacement = JPEGFactory.createFromByteArray(doc, jpeg);
+            COSStream replacementStream = replacement.getCOSObject();
+            for (COSName key : CARRIED_OVER) {
+                COSBase value = stream.getItem(key);
+                if (value != null) replacementStream.setItem(key, value);
+            }
+            return replacementStream;
+        }
+    }
+
+    // Halves in steps before the last bilinear pass - going straight to a much smaller size
+    // skips pixels instead of averaging them
+    private static BufferedImage resize(BufferedImage source, int width, int height, boolean gray) {
+        int type = gray ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB;
+        BufferedImage current = source;
+        if (current.getType() == type && current.getWidth() == width && current.getHeight() == height) {
+            return current;
+        }
+        do {
+            int w = current.getWidth() / 2 >= width ? current.getWidth() / 2 : width;
+            int h = current.getHeight() / 2 >= height ? current.getHeight() / 2 : height;
+            BufferedImage next = new BufferedImage(w, h, type);
+            Graphics2D g = next.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(current, 0, 0, w, h, null);
+            } finally {
+                g.dispose();
+            }
+            current = next;
+        } while (current.getWidth() != width || current.getHeight() != height);
+        return current;
+    }
+
+    private static byte[] encodeJpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // In-memory stream: ImageIO's default cache would go through temp files
+        try (ImageOutputStream imageOut = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(imageOut);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static final class ImageStats {
+        int unique;
+        int recompressed;
+        int duplicates;
+
+        @Override
+        public String toString() {
+            return "unique=" + unique + ", recompressed=" + recompressed + ", duplicates=" + duplicates;
+        }
+    }
+
+    // Wall time per stage, in Server-Timing format ("parse;dur=12, scan;dur=3, ...")
+    private static final class Stages {
+        private final Map<String, Long> millis = new LinkedHashMap<>();
+        private long last = System.nanoTime();
+
+        void lap(String stage) {
+            long now = System.nanoTime();
+            millis.put(stage, (now - last) / 1_000_000);
+            last = now;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            millis.forEach((stage, ms) -> {
+                if (!sb.isEmpty()) sb.append(", ");
+                sb.append(stage).append(";dur=").append(ms);
+            });
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.pdfbackend;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Where operations do their CPU work (parse + transform) when request threads are virtual
+// (spring.threads.virtual.enabled): a fixed pool of platform threads, one per core by default.
+// Virtual threads share a carrier per core, so a long PDFBox transform on one would hold a
+// carrier that slow uploads and downloads need; here it only waits for a CPU thread.
+// The queue has no bound of its own - admission control already caps how many operations run.
+// Writing the result stays with the request: it's interleaved with sending it.
+//
+// Switched off (the default, with platform request threads) the work runs on the caller.
+// Metrics: pdf.threads.active / queued / limit and pdf.threads.wait (time in the queue), tagged
+// pool=cpu; IoThreadMetrics has the same for the request threads.
+@Component
+public class PdfCpuPool {
+
+    private static final int PENDING = 0;
+    private static final int DELIVERED = 1;
+    private static final int ABANDONED = 2;
+
+    private final ThreadPoolExecutor executor;
+    private final Timer wait;
+
+    public PdfCpuPool(
+            @Value("${pdf.cpu-pool.enabled:${spring.threads.virtual.enabled:false}}") boolean enabled,
+            @Value("${pdf.cpu-pool.size:0}") int size,
+            MeterRegistry registry
+    ) {
+        if (!enabled) {
+            this.executor = null;
+            this.wait = null;
+            return;
+        }
+        // 0 = one thread per core
+        int threads = size > 0 ? size : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadIds = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "pdf-cpu-" + threadIds.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        Gauge.builder("pdf.threads.active", executor, ThreadPoolExecutor::getActiveCount)
+                .tag("pool", "cpu").register(registry);
+        Gauge.builder("pdf.threads.queued", executor, e -> e.getQueue().size())
+                .tag("pool", "cpu").register(registry);
+        Gauge.builder("pdf.threads.limit", executor, ThreadPoolExecutor::getMaximumPoolSize)
+                .tag("pool", "cpu").register(registry);
+        this.wait = Timer.builder("pdf.threads.wait").tag("pool", "cpu")
+                .description("Time from handing work over until a thread picks it up").register(registry);
+    }
+
+    // Runs task on the pool and waits for it, as if it ran here: same exceptions, and the
+    // operation being timed (PdfMetrics) moves along with it. Abandoned work is interrupted, and
+    // whatever it still produces (PDFBox doesn't stop for interrupts) is closed - a PdfOutput
+    // holds spooled files and the admission permit.
+    public <T> T call(Callable<T> task) throws Exception {
+        if (executor == null) return task.call();
+        Callable<T> bound = PdfMetrics.propagate(task);
+        // Whoever gets here first decides who owns the result: the caller, or nobody
+        AtomicInteger handover = new AtomicInteger(PENDING);
+        long submitted = System.nanoTime();
+        Future<T> future = executor.submit(() -> {
+            wait.record(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+            T result = bound.call();
+            if (!handover.compareAndSet(PENDING, DELIVERED) && result instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+            return result;
+        });
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            if (handover.compareAndSet(PENDING, ABANDONED)) {
+                future.cancel(true);
+            } else {
+                // Finished just now: it's ours, so release it
+                closeDelivered(future);
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) throw cause;
+            if (e.getCause() instanceof Error error) throw error;
+            throw e;
+        }
+    }
+
+    // The task is past its handover and about to complete, so this wait is short
+    private static void closeDelivered(Future<?> future) throws Exception {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    if (future.get() instanceof AutoCloseable closeable) closeable.close();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    return;
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) executor.shutdownNow();
+    }
+}
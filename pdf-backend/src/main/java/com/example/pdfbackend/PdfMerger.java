@@ -0,0 +1,115 @@
+package com.example.pdfbackend;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+// Merges documents one source at a time: each is parsed, appended and closed before the next
+// one is opened, so the heap never holds more than one of them.
+//  - up to pdf.merge.streaming-min-size of input: PDFMergerUtility into a PDDocument with a budget
+//    of its own (pdf.merge.max-main on the heap, the rest in a scratch file), saved straight into
+//    the response. PDFCloneUtility copies stream data, so nothing in it points at a closed source.
+//    Keeps everything - form fields, tagged structure, page labels - but the result's objects stay
+//    on the heap, a few KB a page.
+//  - past it: StreamingMerge writes the result while it reads the sources, and the heap stays flat
+//    however many pages there are. Keeps pages, links and bookmarks - so it's only used when no
+//    source has form fields, tagged structure or page labels (their catalogs are checked first).
+//    Metadata and document-level JavaScript still don't make it; such a result says
+//    X-Merge-Streamed: true.
+@Component
+public class PdfMerger {
+
+    private final PdfSpool spool;
+    private final long maxMainBytes;
+    private final long maxScratchBytes;
+    // -1 = never stream
+    private final long streamingMinBytes;
+
+    public PdfMerger(
+            PdfSpool spool,
+            @Value("${pdf.merge.max-main:16MB}") DataSize maxMain,
+            @Value("${pdf.merge.max-scratch:4GB}") DataSize maxScratch,
+            @Value("${pdf.merge.streaming:true}") boolean streaming,
+            @Value("${pdf.merge.streaming-min-size:16MB}") DataSize streamingMinSize
+    ) {
+        this.spool = spool;
+        this.maxMainBytes = maxMain.toBytes();
+        this.maxScratchBytes = maxScratch.toBytes();
+        this.streamingMinBytes = streaming ? streamingMinSize.toBytes() : -1;
+    }
+
+    // dedupe: share fonts, images and color profiles that several sources carry (see ResourceDeduplicator)
+    public PdfOutput merge(List<PdfSource> sources, boolean dedupe) throws IOException {
+        long inputBytes = 0;
+        for (PdfSource source : sources) inputBytes += source.size();
+        if (streamingMinBytes >= 0 && inputBytes >= streamingMinBytes && streamable(sources)) {
+            return mergeStreaming(sources, dedupe);
+        }
+
+        PDFMergerUtility merger = new PDFMergerUtility();
+        PDDocument dest = new PDDocument(spool.memoryUsage(maxMainBytes, maxScratchBytes));
+        PdfOutput output = PdfOutput.of(dest);
+        try {
+            for (PdfSource source : sources) {
+                try (PDDocument src = source.load()) {
+                    merger.appendDocument(dest, src);
+                }
+            }
+            return dedupe ? withSavings(output, ResourceDeduplicator.dedupe(dest)) : output;
+        } catch (IOException | RuntimeException e) {
+            output.close();
+            throw e;
+        }
+    }
+
+    // Written to a scratch file first: the size is known before anything is sent, and a broken
+    // source is reported as an error rather than as a truncated download
+    private PdfOutput mergeStreaming(List<PdfSource> sources, boolean dedupe) throws IOException {
+        Path merged = spool.newScratchFile("merged-", ".pdf");
+        try {
+            ResourceDeduplicator.Savings saved;
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(merged), PdfOutput.BUFFER_SIZE)) {
+                saved = StreamingMerge.write(sources, out, dedupe);
+            }
+            PdfOutput output = PdfOutput.of(merged).closing(() -> Files.deleteIfExists(merged))
+                    .header("X-Merge-Streamed", "true");
+            return dedupe ? withSavings(output, saved) : output;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(merged);
+            throw e;
+        }
+    }
+
+    // Nothing StreamingMerge would drop: form fields, a structure tree, page labels. Only the
+    // catalogs are read (xref and trailer), not the pages.
+    private static boolean streamable(List<PdfSource> sources) throws IOException {
+        for (PdfSource source : sources) {
+            try (PDDocument doc = source.peek()) {
+                COSDictionary root = doc.getDocumentCatalog().getCOSObject();
+                if (root.containsKey(COSName.STRUCT_TREE_ROOT) || root.containsKey(COSName.PAGE_LABELS)) return false;
+                if (root.getDictionaryObject(COSName.ACRO_FORM) instanceof COSDictionary form
+                        && form.getDictionaryObject(COSName.FIELDS) instanceof COSArray fields && fields.size() > 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static PdfOutput withSavings(PdfOutput output, ResourceDeduplicator.Savings saved) {
+        return output.header("X-Dedup-Streams", Integer.toString(saved.streams()))
+                .header("X-Dedup-Bytes-Saved", Long.toString(saved.bytes()));
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.pdfbackend;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Where an operation's time goes, exposed on /actuator/prometheus:
+//   pdf.operation            timer per operation and outcome, from admission until the result is written
+//   pdf.stage                timer per operation and stage:
+//                              queue      waiting for admission (see AdmissionControl)
+//                              parse      PDDocument.load of the upload(s), on the request's thread
+//                              transform  the rest of the work before the result is handed back
+//                              serialize  writing the result (a split ZIP or a streamed merge does most
+//                                         of its work here: the parts are built while being sent)
+//   pdf.documents.in.flight  operations admitted and not finished yet
+//   pdf.pages                pages loaded, per operation
+//   pdf.input.size / pdf.output.size   bytes in and out, per operation
+// Cache hits aren't operations: they never get here. Histogram buckets are switched on in
+// application.properties (management.metrics.distribution.*).
+//
+// The same numbers go to the request's ServerTiming (header and access log), when there is one.
+//
+// Everything is looked up once, up front; per request it's a few clock reads and counter adds.
+@Component
+public class PdfMetrics {
+
+    // The operation running on this thread, so PdfSource can put parse time on its account
+    private static final ThreadLocal<Sample> CURRENT = new ThreadLocal<>();
+
+    private final MeterRegistry registry;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Map<PdfOperation, Meters> meters = new EnumMap<>(PdfOperation.class);
+
+    private record Meters(Timer success, Timer queue, Timer parse, Timer transform, Timer serialize,
+                          Counter pages, DistributionSummary bytesIn, DistributionSummary bytesOut) {
+    }
+
+    public PdfMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        Gauge.builder("pdf.documents.in.flight", inFlight, AtomicInteger::get)
+                .description("PDF operations admitted and not finished yet")
+                .register(registry);
+        for (PdfOperation op : PdfOperation.values()) {
+            meters.put(op, new Meters(
+                    operationTimer(op, "success"),
+                    stageTimer(op, "queue"),
+                    stageTimer(op, "parse"),
+                    stageTimer(op, "transform"),
+                    stageTimer(op, "serialize"),
+                    Counter.builder("pdf.pages").tag("operation", op.path())
+                            .description("Pages loaded").register(registry),
+                    DistributionSummary.builder("pdf.input.size").tag("operation", op.path())
+                            .baseUnit("bytes").register(registry),
+                    DistributionSummary.builder("pdf.output.size").tag("operation", op.path())
+                            .baseUnit("bytes").register(registry)));
+        }
+    }
+
+    private Timer operationTimer(PdfOperation op, String outcome) {
+        return Timer.builder("pdf.operation").tag("operation", op.path()).tag("outcome", outcome)
+                .description("Whole operation, until the result is written")
+                .register(registry);
+    }
+
+    private Timer stageTimer(PdfOperation op, String stage) {
+        return Timer.builder("pdf.stage").tag("operation", op.path()).tag("stage", stage)
+                .register(registry);
+    }
+
+    // Admitted after queueNanos in line. Documents loaded on this thread until the sample is
+    // finished count towards it.
+    public Sample start(OperationRequest request, long queueNanos) {
+        Sample sample = new Sample(request.operation(), meters.get(request.operation()), ServerTiming.current());
+        sample.meters.queue.record(queueNanos, TimeUnit.NANOSECONDS);
+        sample.meters.bytesIn.record(request.inputBytes());
+        if (sample.timing != null) sample.timing.record("queue", queueNanos);
+        inFlight.incrementAndGet();
+        CURRENT.set(sample);
+        return sample;
+    }
+
+    // Called for every document PdfSource hands out. parseNanos < 0: it was parsed earlier (a warm
+    // workspace copy), so only its pages count. doc null: only peeked at, so only the parse counts.
+    static void loaded(PDDocument doc, long parseNanos) {
+        Sample sample = CURRENT.get();
+        if (sample == null) return;
+        if (parseNanos > 0) sample.parseNanos += parseNanos;
+        if (doc != null) sample.pages += doc.getNumberOfPages();
+    }
+
+    // The task, carrying this thread's operation along to whichever thread runs it (PdfCpuPool)
+    static <T> Callable<T> propagate(Callable<T> task) {
+        Sample sample = CURRENT.get();
+        if (sample == null) return task;
+        return () -> {
+            CURRENT.set(sample);
+            try {
+                return task.call();
+            } finally {
+                CURRENT.remove();
+            }
+        };
+    }
+
+    public final class Sample {
+        private final PdfOperation operation;
+        private final Meters meters;
+        // null outside of a request (jobs)
+        private final ServerTiming timing;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private long parseNanos;
+        private long pages;
+        private volatile boolean written;
+
+        private Sample(PdfOperation operation, Meters meters, ServerTiming timing) {
+            this.operation = operation;
+            this.meters = meters;
+            this.timing = timing;
+        }
+
+        // The result is ready to be written: parse and transform are over, serialize starts
+        // whenever it's written, and the operation ends when it's closed
+        public PdfOutput track(PdfOutput output) {
+            CURRENT.remove();
+            long transform = Math.max(0, System.nanoTime() - start - parseNanos);
+            if (parseNanos > 0) meters.parse.record(parseNanos, TimeUnit.NANOSECONDS);
+            meters.transform.record(transform, TimeUnit.NANOSECONDS);
+            meters.pages.increment(pages);
+            if (timing != null) {
+                timing.record("parse", parseNanos);
+                timing.record("transform", transform);
+                timing.pages(pages);
+            }
+            return output.wrapBody(body -> out -> {
+                long began = System.nanoTime();
+                Counting counting = new Counting(out);
+                body.writeTo(counting);
+                long serialize = System.nanoTime() - began;
+                meters.serialize.record(serialize, TimeUnit.NANOSECONDS);
+                meters.bytesOut.record(counting.count);
+                if (timing != null) {
+                    timing.record("serialize", serialize);
+                    timing.outputBytes(counting.count);
+                }
+                written = true;
+            }).closing(() -> finish(written ? null : "unwritten"));
+        }
+
+        // The operation threw before there was a result
+        public void failed(Exception e) {
+            CURRENT.remove();
+            finish(e instanceof IllegalArgumentException ? "rejected" : "error");
+        }
+
+        private void finish(String outcome) {
+            if (!done.compareAndSet(false, true)) return;
+            inFlight.decrementAndGet();
+            Timer timer = outcome == null ? meters.success : operationTimer(operation, outcome);
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static final class Counting extends FilterOutputStream {
+        long count;
+
+        Counting(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.pdfbackend;
+
+import java.util.Locale;
+
+// Every operation the backend offers, by the name used in URLs (/jobs/{op}, ...).
+// The heap number feeds AdmissionControl's cost estimate: roughly how much heap the operation
+// needs per byte of input, parsed objects and per-page work (forms, content streams...) included.
+public enum PdfOperation {
+
+    CONVERT("convert", "Pages_Per_Sheet.pdf", 3.6),
+    MERGE("merge", "Merged_Document.pdf", 2.2),
+    SPLIT("split", "Split_Document.pdf", 2.2),
+    COMPRESS("compress", "Compressed_Document.pdf", 4.3),
+    DELETE("delete", "Deleted_Pages.pdf", 1.6),
+    REARRANGE("rearrange", "Rearranged_Document.pdf", 1.6),
+    ADD_PAGE_NUMBERS("add-page-numbers", "Numbered_Document.pdf", 1.6),
+    WATERMARK("watermark", "Watermarked_Document.pdf", 1.6),
+    HEADER_FOOTER("header-footer", "Stamped_Document.pdf", 1.6),
+    // Several of the above on one load of the document; priced like its most expensive step (N-up)
+    PIPELINE("pipeline", "Processed_Document.pdf", 3.6);
+
+    private final String path;
+    private final String filename;
+    private final double heapPerInputByte;
+
+    PdfOperation(String path, String filename, double heapPerInputByte) {
+        this.path = path;
+        this.filename = filename;
+        this.heapPerInputByte = heapPerInputByte;
+    }
+
+    public String path() {
+        return path;
+    }
+
+    public String filename() {
+        return filename;
+    }
+
+    public double heapPerInputByte() {
+        return heapPerInputByte;
+    }
+
+    public static PdfOperation fromPath(String path) {
+        String wanted = path == null ? "" : path.toLowerCase(Locale.ROOT);
+        for (PdfOperation op : values()) {
+            if (op.path.equals(wanted)) return op;
+        }
+        throw new IllegalArgumentException("Unknown operation: " + path);
+    }
+}
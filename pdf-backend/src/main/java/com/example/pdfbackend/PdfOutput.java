@@ -0,0 +1,150 @@
+package com.example.pdfbackend;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.springframework.http.MediaType;
+import org.springframework.util.StreamUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+// A finished result that hasn't been written yet. Document results are saved
+// straight into the response stream, so nothing gets buffered into a byte[] first.
+// Owns whatever has to stay open until then (source documents, spooled uploads...).
+public class PdfOutput implements Closeable {
+
+    // Bounded write buffer between PDFBox and the servlet stream
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    @FunctionalInterface
+    public interface Body {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private Body body;
+    private final long contentLength;
+    private MediaType contentType;
+    // null = the operation's default name
+    private String filename;
+    private final Deque<AutoCloseable> resources = new ArrayDeque<>();
+    // Extra response headers describing the result (sizes, timings...)
+    private final Map<String, String> headers = new LinkedHashMap<>();
+
+    private PdfOutput(Body body, long contentLength, MediaType contentType) {
+        this.body = body;
+        this.contentLength = contentLength;
+        this.contentType = contentType;
+    }
+
+    // Size isn't known until PDFBox has written it, so these go out chunked
+    public static PdfOutput of(PDDocument doc, AutoCloseable... alsoClose) {
+        PdfOutput output = new PdfOutput(doc::save, -1, MediaType.APPLICATION_PDF);
+        output.closing(doc);
+        output.closing(alsoClose);
+        return output;
+    }
+
+    // An incremental update: the file the document was loaded from, followed by only the objects
+    // marked as changed (see DocumentChain.appended and IncrementalSave)
+    public static PdfOutput appending(PDDocument doc, Path original, AutoCloseable... alsoClose) {
+        PdfOutput output = new PdfOutput(out -> IncrementalSave.write(doc, original, out), -1, MediaType.APPLICATION_PDF);
+        output.closing(doc);
+        output.closing(alsoClose);
+        return output;
+    }
+
+    // Anything else written on the fly, e.g. a ZIP built while it's being sent
+    public static PdfOutput streaming(Body body, AutoCloseable... alsoClose) {
+        PdfOutput output = new PdfOutput(body, -1, MediaType.APPLICATION_PDF);
+        output.closing(alsoClose);
+        return output;
+    }
+
+    public static PdfOutput of(byte[] bytes) {
+        return new PdfOutput(out -> out.write(bytes), bytes.length, MediaType.APPLICATION_PDF);
+    }
+
+    public static PdfOutput of(Path file) throws IOException {
+        return new PdfOutput(out -> Files.copy(file, out), Files.size(file), MediaType.APPLICATION_PDF);
+    }
+
+    public PdfOutput closing(AutoCloseable... alsoClose) {
+        // Released in registration order: the document first, the file it was read from last
+        for (AutoCloseable resource : alsoClose) {
+            resources.addLast(resource);
+        }
+        return this;
+    }
+
+    // For results that aren't a single PDF
+    public PdfOutput as(MediaType contentType, String filename) {
+        this.contentType = contentType;
+        this.filename = filename;
+        return this;
+    }
+
+    // Lets someone watch (or copy) the bytes on their way out, e.g. the result cache
+    public PdfOutput wrapBody(UnaryOperator<Body> wrapper) {
+        this.body = wrapper.apply(body);
+        return this;
+    }
+
+    public PdfOutput header(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    public Map<String, String> headers() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        // PDDocument.save closes whatever it's given, so keep it away from the real stream
+        try (OutputStream buffered = new BufferedOutputStream(StreamUtils.nonClosing(out), BUFFER_SIZE)) {
+            body.writeTo(buffered);
+        }
+    }
+
+    public byte[] toByteArray() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(contentLength > 0 ? (int) contentLength : BUFFER_SIZE);
+        writeTo(out);
+        return out.toByteArray();
+    }
+
+    // -1 when unknown
+    public long contentLength() {
+        return contentLength;
+    }
+
+    public MediaType contentType() {
+        return contentType;
+    }
+
+    public String filename() {
+        return filename;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        while (!resources.isEmpty()) {
+            try {
+                resources.pollFirst().close();
+            } catch (Exception e) {
+                if (failure == null) failure = new IOException("Failed to release document resources", e);
+                else failure.addSuppressed(e);
+            }
+        }
+        if (failure != null) throw failure;
+    }
+}
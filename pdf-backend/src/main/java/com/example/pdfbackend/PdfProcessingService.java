@@ -1,28 +1,95 @@
 package com.example.pdfbackend;
 
 import org.apache.pdfbox.multipdf.LayerUtility;
-import org.apache.pdfbox.multipdf.PDFMergerUtility;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
 import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
 import org.apache.pdfbox.util.Matrix;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.util.unit.DataSize;
 
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 @Service
 public class PdfProcessingService {
 
+    private final PdfSpool spool;
+    private final AdmissionControl admission;
+
+    // N-up on big documents is split into sheet ranges drawn in parallel (see renderSheetsParallel)
+    private final boolean nupParallel;
+    private final int nupParallelMinSheets;
+    private final ForkJoinPool nupPool;
+    private final PdfCompressor compressor;
+    private final PdfSplitter splitter;
+    private final PdfMerger merger;
+    private final PdfStamper stamper;
+    // Append-only edits on uploads of at least this size are saved as an incremental update
+    // (see DocumentChain). Below it a full save is just as quick and comes out smaller,
+    // since the increment repeats every page it touched. -1 = never.
+    private final long incrementalMinBytes;
+
+    public PdfProcessingService(
+            PdfSpool spool,
+            PdfWorkers workers,
+            AdmissionControl admission,
+            PdfCompressor compressor,
+            PdfSplitter splitter,
+            PdfMerger merger,
+            PdfStamper stamper,
+            @Value("${pdf.nup.parallel.enabled:true}") boolean nupParallel,
+            @Value("${pdf.nup.parallel.min-sheets:16}") int nupParallelMinSheets,
+            @Value("${pdf.save.incremental:true}") boolean incrementalSave,
+            @Value("${pdf.save.incremental-min-size:1MB}") DataSize incrementalMinSize
+    ) {
+        this.spool = spool;
+        this.admission = admission;
+        this.nupParallel = nupParallel;
+        this.nupParallelMinSheets = Math.max(1, nupParallelMinSheets);
+        this.nupPool = workers.pool();
+        this.compressor = compressor;
+        this.splitter = splitter;
+        this.merger = merger;
+        this.stamper = stamper;
+        this.incrementalMinBytes = incrementalSave ? incrementalMinSize.toBytes() : -1;
+    }
+
+    // One step of an operation (or of a pipeline), applied to the chain's current document
+    @FunctionalInterface
+    interface Step {
+        void apply(DocumentChain chain) throws Exception;
+    }
+
+    // Loads the upload once, runs the steps in order, and saves once when the output is written
+    PdfOutput run(PdfSource source, List<Step> steps) throws Exception {
+        DocumentChain chain = DocumentChain.load(source, spool);
+        try {
+            for (Step step : steps) step.apply(chain);
+            return chain.toOutput(incrementalMinBytes >= 0 && source.size() >= incrementalMinBytes);
+        } catch (Exception e) {
+            chain.close();
+            throw e;
+        }
+    }
+
     // ==========================================
     // 1. PAGES PER SHEET & YOUR FOLDABLE LOGIC
     // ==========================================
-    public byte[] generatePagesPerSheet(byte[] inputBytes, int pagesPerSheet, String paperSize, String mode) throws Exception {
-        
+    public PdfOutput generatePagesPerSheet(PdfSource source, int pagesPerSheet, String paperSize, String mode) throws Exception {
+        return run(source, List.of(pagesPerSheetStep(pagesPerSheet, paperSize, mode)));
+    }
+
+    Step pagesPerSheetStep(int pagesPerSheet, String paperSize, String mode) {
         PDRectangle outSize = switch (paperSize.toUpperCase(Locale.ROOT)) {
             case "A3" -> PDRectangle.A3;
             case "LETTER" -> PDRectangle.LETTER;
@@ -32,234 +99,290 @@ public class PdfProcessingService {
 
         boolean foldable = mode != null && mode.toLowerCase(Locale.ROOT).startsWith("fold");
 
-        try (PDDocument src = PDDocument.load(inputBytes);
-             PDDocument dest = new PDDocument();
-             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-
-            int srcCount = src.getNumberOfPages();
-            LayerUtility layer = new LayerUtility(dest);
-
-            if (!foldable) {
-                // ===== STANDARD: sequential pages 1..n =====
-                int totalSheets = (int) Math.ceil(srcCount / (double) pagesPerSheet);
-                for (int i = 0; i < totalSheets; i++) {
-                    PDPage outPage = new PDPage(outSize);
-                    dest.addPage(outPage);
-
-                    try (PDPageContentStream cs = new PDPageContentStream(dest, outPage)) {
-                        for (int j = 0; j < pagesPerSheet; j++) {
-                            int srcIndex1 = (i * pagesPerSheet) + j + 1;
-                            if (srcIndex1 <= srcCount) {
-                                drawOne(layer, dest, src, cs, srcIndex1 - 1, j, pagesPerSheet, outSize);
-                            }
-                        }
-                    }
-                }
+        return chain -> {
+            PDDocument src = chain.current();
+            // Indexed once per document by the chain; every cell below is an array lookup
+            PageIndex pages = chain.pages();
+            PDDocument dest = chain.newDocument();
+            int[][] sheets = planSheets(pages.size(), pagesPerSheet, foldable);
+
+            // Parallel ranges load their own views of the upload, so only while it's unchanged
+            PdfSource source = chain.pristineSource();
+            if (source != null && nupParallel && sheets.length >= nupParallelMinSheets && nupPool.getParallelism() > 1) {
+                renderSheetsParallel(source, src, pages, dest, sheets, pagesPerSheet, outSize, chain);
             } else {
-                // ===== YOUR CUSTOM FOLDABLE LOGIC (Kept 100% intact) =====
-                // Fronts = odd pages, backs = even pages (row-wise mirrored columns)
-                int totalSheets = (int) Math.ceil(srcCount / (double) (pagesPerSheet * 2));
-
-                // 1) Fronts
-                for (int i = 0; i < totalSheets; i++) {
-                    PDPage outPage = new PDPage(outSize);
-                    dest.addPage(outPage);
-
-                    int batchStart0 = i * (pagesPerSheet * 2);
-
-                    try (PDPageContentStream cs = new PDPageContentStream(dest, outPage)) {
-                        for (int j = 0; j < pagesPerSheet; j++) {
-                            int srcIndex1 = batchStart0 + (j * 2) + 1; 
-                            if (srcIndex1 <= srcCount) {
-                                drawOne(layer, dest, src, cs, srcIndex1 - 1, j, pagesPerSheet, outSize);
-                            }
-                        }
+                renderSheets(src, pages, dest, sheets, 0, sheets.length, pagesPerSheet, outSize);
+            }
+            chain.replace(dest);
+        };
+    }
+
+    // Which source page (0-based, -1 = empty cell) goes into each cell of each output sheet, in output order
+    private int[][] planSheets(int srcCount, int pagesPerSheet, boolean foldable) {
+        if (!foldable) {
+            // ===== STANDARD: sequential pages 1..n =====
+            int totalSheets = (int) Math.ceil(srcCount / (double) pagesPerSheet);
+            int[][] plan = new int[totalSheets][pagesPerSheet];
+            for (int i = 0; i < totalSheets; i++) {
+                for (int j = 0; j < pagesPerSheet; j++) {
+                    int srcIndex1 = (i * pagesPerSheet) + j + 1;
+                    plan[i][j] = srcIndex1 <= srcCount ? srcIndex1 - 1 : -1;
+                }
+            }
+            return plan;
+        }
+
+        // ===== YOUR CUSTOM FOLDABLE LOGIC (Kept 100% intact) =====
+        // Fronts = odd pages, backs = even pages (row-wise mirrored columns)
+        int totalSheets = (int) Math.ceil(srcCount / (double) (pagesPerSheet * 2));
+        int[][] plan = new int[totalSheets * 2][pagesPerSheet];
+
+        // 1) Fronts
+        for (int i = 0; i < totalSheets; i++) {
+            int batchStart0 = i * (pagesPerSheet * 2);
+            for (int j = 0; j < pagesPerSheet; j++) {
+                int srcIndex1 = batchStart0 + (j * 2) + 1; 
+                plan[i][j] = srcIndex1 <= srcCount ? srcIndex1 - 1 : -1;
+            }
+        }
+
+        // 2) Backs
+        int cols = gridCols(pagesPerSheet);
+        for (int i = 0; i < totalSheets; i++) {
+            int batchStart0 = i * (pagesPerSheet * 2);
+            for (int j = 0; j < pagesPerSheet; j++) {
+                int row = j / cols;
+                int col = j % cols;
+                int reversedCol = cols - 1 - col;
+                int reversedPos = row * cols + reversedCol;
+
+                int srcIndex1 = batchStart0 + (reversedPos * 2) + 2; 
+                plan[totalSheets + i][j] = srcIndex1 <= srcCount ? srcIndex1 - 1 : -1;
+            }
+        }
+        return plan;
+    }
+
+    // Draws sheets [from, to) of the plan into dest
+    private void renderSheets(PDDocument src, PageIndex pages, PDDocument dest, int[][] sheets, int from, int to,
+                              int pagesPerSheet, PDRectangle outSize) throws Exception {
+        LayerUtility layer = new LayerUtility(dest);
+        for (int i = from; i < to; i++) {
+            PDPage outPage = new PDPage(outSize);
+            dest.addPage(outPage);
+
+            try (PDPageContentStream cs = new PDPageContentStream(dest, outPage)) {
+                int[] cells = sheets[i];
+                for (int j = 0; j < cells.length; j++) {
+                    if (cells[j] >= 0) {
+                        drawOne(layer, src, pages, cs, cells[j], j, pagesPerSheet, outSize);
                     }
                 }
+            }
+        }
+    }
+
+    // Splits the sheets into contiguous ranges. The first range is drawn on this thread straight
+    // into dest; the others are drawn on the fork-join pool, each from its own load of the source
+    // (PDDocument isn't thread safe), into their own partial documents. The partial sheets are then
+    // appended to dest in range order, so the page sequence is exactly the serial one.
+    // The operation was admitted for one load; every extra view needs a permit of its own, and only
+    // as many ranges are drawn as there are permits (none at all = serial).
+    private void renderSheetsParallel(PdfSource source, PDDocument src, PageIndex pages, PDDocument dest, int[][] sheets,
+                                      int pagesPerSheet, PDRectangle outSize, DocumentChain chain) throws Exception {
+        int wanted = Math.min(nupPool.getParallelism(), Math.max(1, sheets.length / nupParallelMinSheets + 1));
+        long viewCost = admission.estimate(PdfOperation.CONVERT, source.size());
+        int partitions = 1;
+        while (partitions < wanted) {
+            AdmissionControl.Permit permit = admission.tryAdmit(viewCost);
+            if (permit == null) break;
+            // Held until the result has been written, like the views themselves
+            chain.keepOpen(permit);
+            partitions++;
+        }
+        if (partitions == 1) {
+            renderSheets(src, pages, dest, sheets, 0, sheets.length, pagesPerSheet, outSize);
+            return;
+        }
+        int perPartition = (int) Math.ceil(sheets.length / (double) partitions);
+
+        List<ForkJoinTask<NupPartition>> tasks = new ArrayList<>();
+        for (int from = perPartition; from < sheets.length; from += perPartition) {
+            int start = from;
+            int end = Math.min(sheets.length, from + perPartition);
+            tasks.add(nupPool.submit(() -> renderPartition(source, sheets, start, end, pagesPerSheet, outSize)));
+        }
+
+        Exception failure = null;
+        try {
+            renderSheets(src, pages, dest, sheets, 0, Math.min(perPartition, sheets.length), pagesPerSheet, outSize);
+        } catch (Exception e) {
+            failure = e;
+        }
 
-                // 2) Backs
-                int cols = gridCols(pagesPerSheet);
-                for (int i = 0; i < totalSheets; i++) {
-                    PDPage outPage = new PDPage(outSize);
-                    dest.addPage(outPage);
-
-                    int batchStart0 = i * (pagesPerSheet * 2);
-
-                    try (PDPageContentStream cs = new PDPageContentStream(dest, outPage)) {
-                        for (int j = 0; j < pagesPerSheet; j++) {
-                            int row = j / cols;
-                            int col = j % cols;
-                            int reversedCol = cols - 1 - col;
-                            int reversedPos = row * cols + reversedCol;
-
-                            int srcIndex1 = batchStart0 + (reversedPos * 2) + 2; 
-                            if (srcIndex1 <= srcCount) {
-                                drawOne(layer, dest, src, cs, srcIndex1 - 1, j, pagesPerSheet, outSize);
-                            }
+        // Wait for every partition even after a failure or an interrupt, so nothing is left open
+        // behind our back
+        boolean interrupted = false;
+        for (ForkJoinTask<NupPartition> task : tasks) {
+            while (true) {
+                try {
+                    NupPartition part = task.get();
+                    chain.keepOpen(part.view(), part.sheets());
+                    if (failure == null) {
+                        PageIndex partSheets = PageIndex.of(part.sheets());
+                        for (int i = 0; i < partSheets.size(); i++) {
+                            dest.addPage(partSheets.page(i));
                         }
                     }
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    if (failure == null) failure = e;
+                } catch (ExecutionException e) {
+                    if (failure == null) failure = e.getCause() instanceof Exception cause ? cause : e;
+                    break;
                 }
             }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (failure != null) throw failure;
+    }
 
-            dest.save(out);
-            return out.toByteArray();
+    private NupPartition renderPartition(PdfSource source, int[][] sheets, int from, int to,
+                                         int pagesPerSheet, PDRectangle outSize) throws Exception {
+        PDDocument view = source.load();
+        PDDocument part = new PDDocument(spool.memoryUsage());
+        try {
+            renderSheets(view, PageIndex.of(view), part, sheets, from, to, pagesPerSheet, outSize);
+            return new NupPartition(view, part);
+        } catch (Exception e) {
+            part.close();
+            view.close();
+            throw e;
         }
     }
 
+    // A partial N-up result and the source view it was drawn from (its forms point into it)
+    private record NupPartition(PDDocument view, PDDocument sheets) {
+    }
+
     // ==========================================
     // 2. MERGE PDF (New Feature)
     // ==========================================
-    public byte[] mergePdfs(MultipartFile[] files) throws Exception {
-        PDFMergerUtility merger = new PDFMergerUtility();
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-            merger.setDestinationStream(out);
-            for (MultipartFile file : files) {
-                try (InputStream is = file.getInputStream()) {
-                    merger.addSource(is);
-                }
-            }
-            // Memory setting avoids heavy disk usage
-            merger.mergeDocuments(org.apache.pdfbox.io.MemoryUsageSetting.setupMainMemoryOnly());
-            return out.toByteArray();
-        }
+    public PdfOutput mergePdfs(List<PdfSource> sources, boolean dedupe) throws Exception {
+        // One source at a time, each closed once it's appended (see PdfMerger)
+        return merger.merge(sources, dedupe);
     }
 
     // ==========================================
     // 3. SPLIT PDF (New Feature)
     // ==========================================
-    public byte[] splitPdf(byte[] inputBytes, String pagesStr) throws Exception {
-        // Note: For now, this is a basic placeholder framework. 
-        // Parsing "1-3,5" requires a custom string parser we can add later.
-        try (PDDocument src = PDDocument.load(inputBytes);
-             PDDocument dest = new PDDocument();
-             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-             
-            // Simply saving the first page as a test proof-of-concept
-            if (src.getNumberOfPages() > 0) {
-                dest.addPage(src.getPage(0)); 
-            }
-            dest.save(out);
-            return out.toByteArray();
-        }
+    public PdfOutput splitPdf(PdfSource source, String pagesStr) throws Exception {
+        // "1-3,5,7-", "every 2" or "bookmarks"; several parts come back as a ZIP
+        return splitter.split(source, pagesStr);
     }
 
     // ==========================================
     // 4. COMPRESS PDF (New Feature)
     // ==========================================
-    public byte[] compressPdf(byte[] inputBytes, String level) throws Exception {
-        // PDFBox doesn't natively "compress" heavily without image re-sampling.
-        // For now, this just passes it through safely to prove the API connects.
-        return inputBytes; 
+    public PdfOutput compressPdf(PdfSource source, String level) throws Exception {
+        return compressor.compress(source, PdfCompressor.Level.parse(level));
     }
+
    // ==========================================
     // 5. DELETE PAGES
     // ==========================================
-    public byte[] deletePages(byte[] inputBytes, String pagesStr) throws Exception {
-        try (PDDocument src = PDDocument.load(inputBytes);
-             PDDocument dest = new PDDocument();
-             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-
-            // Parse the comma-separated string (e.g., "1,3,5") into a Set
-            java.util.Set<Integer> pagesToDelete = new java.util.HashSet<>();
-            if (pagesStr != null && !pagesStr.isBlank()) {
-                String[] tokens = pagesStr.split(",");
-                for (String token : tokens) {
-                    try {
-                        pagesToDelete.add(Integer.parseInt(token.trim()));
-                    } catch (NumberFormatException ignored) {}
-                }
+    public PdfOutput deletePages(PdfSource source, String pagesStr) throws Exception {
+        return run(source, List.of(deleteStep(pagesStr)));
+    }
+
+    Step deleteStep(String pagesStr) {
+        return chain -> {
+            // Pages to drop, e.g. "1, 5-8" or "even" (see PageSelection). Nothing given = nothing deleted.
+            PageIndex pages = chain.pages();
+            int totalPages = pages.size();
+            BitSet pagesToDelete = pagesStr == null || pagesStr.isBlank()
+                    ? new BitSet()
+                    : PageSelection.compile(pagesStr, totalPages).asSet();
+            if (pagesToDelete.cardinality() >= totalPages) {
+                throw new IllegalArgumentException("Can't delete every page of the document.");
             }
 
             // Add all pages EXCEPT the ones in the delete list
-            int totalPages = src.getNumberOfPages();
-            for (int i = 1; i <= totalPages; i++) {
-                if (!pagesToDelete.contains(i)) {
-                    // PDFBox uses 0-based indexing for pages
-                    dest.addPage(src.getPage(i - 1));
-                }
+            int[] kept = new int[totalPages - pagesToDelete.cardinality()];
+            int n = 0;
+            for (int i = pagesToDelete.nextClearBit(0); i < totalPages; i = pagesToDelete.nextClearBit(i + 1)) {
+                kept[n++] = i;
             }
-
-            dest.save(out);
-            return out.toByteArray();
-        }
+            // Copies that leave behind whatever only the deleted pages used (see PageExtractor)
+            PDDocument dest = chain.newDocument();
+            for (PDPage page : PageExtractor.extract(pages, kept)) dest.addPage(page);
+            chain.replace(dest);
+        };
     }
 
     // ==========================================
     // 6. REARRANGE PAGES
     // ==========================================
-    public byte[] rearrangePages(byte[] inputBytes, String order) throws Exception {
-        try (PDDocument src = PDDocument.load(inputBytes);
-             PDDocument dest = new PDDocument();
-             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-
-            // Parse the new order string (e.g., "3,1,2")
-            if (order != null && !order.isBlank()) {
-                String[] tokens = order.split(",");
-                for (String token : tokens) {
-                    try {
-                        int pageNum = Integer.parseInt(token.trim());
-                        // Ensure the requested page actually exists in the source document
-                        if (pageNum >= 1 && pageNum <= src.getNumberOfPages()) {
-                            dest.addPage(src.getPage(pageNum - 1));
-                        }
-                    } catch (NumberFormatException ignored) {}
-                }
-            }
+    public PdfOutput rearrangePages(PdfSource source, String order) throws Exception {
+        return run(source, List.of(rearrangeStep(order)));
+    }
 
-            dest.save(out);
-            return out.toByteArray();
+    Step rearrangeStep(String order) {
+        if (order == null || order.isBlank()) {
+            throw new IllegalArgumentException("Please give the new page order, e.g. \"3,1,2\".");
         }
+        return chain -> {
+            // New order, e.g. "3,1,2", "reverse" or "2-5,1" (see PageSelection)
+            // Pages left out of the order are dropped, and so is whatever only they used.
+            // Repeats are fine: every page is a copy (see PageExtractor)
+            PageIndex pages = chain.pages();
+            PDDocument dest = chain.newDocument();
+            for (PDPage page : PageExtractor.extract(pages, PageSelection.compile(order, pages.size()).pages())) {
+                dest.addPage(page);
+            }
+            chain.replace(dest);
+        };
     }
+
     // ==========================================
     // HELPER METHODS (From your original code)
     // ==========================================
     // ==========================================
     // 7. ADD PAGE NUMBERS (Fully Working)
     // ==========================================
-    public byte[] addPageNumbers(byte[] inputBytes, String position, String margin, int startNumber, String format) throws Exception {
-        try (PDDocument doc = PDDocument.load(inputBytes);
-             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-
-            org.apache.pdfbox.pdmodel.font.PDFont font = org.apache.pdfbox.pdmodel.font.PDType1Font.HELVETICA_BOLD;
-            float fontSize = 12.0f;
-            float marginOffset = margin.equals("tight") ? 15f : (margin.equals("wide") ? 50f : 30f);
-
-            int totalPages = doc.getNumberOfPages();
-            int currentNumber = startNumber;
-
-            for (int i = 0; i < totalPages; i++) {
-                PDPage page = doc.getPage(i);
-                PDRectangle mediaBox = page.getMediaBox();
-                
-                // Determine text to write based on user's selected format
-                String text = String.valueOf(currentNumber);
-                if (format.equals("pageX")) text = "Page " + currentNumber;
-                if (format.equals("xOfY")) text = currentNumber + " of " + (startNumber + totalPages - 1);
-
-                float textWidth = font.getStringWidth(text) / 1000 * fontSize;
-
-                // Calculate X and Y coordinates based on position
-                float x = mediaBox.getWidth() - marginOffset - textWidth; // Default to Right
-                if (position.contains("Left")) x = marginOffset;
-
-                float y = marginOffset; // Default to Bottom
-                if (position.contains("top")) y = mediaBox.getHeight() - marginOffset - fontSize;
-
-                // Draw the text onto the page
-                try (PDPageContentStream cs = new PDPageContentStream(doc, page, PDPageContentStream.AppendMode.APPEND, true, true)) {
-                    cs.beginText();
-                    cs.setFont(font, fontSize);
-                    cs.newLineAtOffset(x, y);
-                    cs.showText(text);
-                    cs.endText();
-                }
-                currentNumber++;
-            }
+    public PdfOutput addPageNumbers(PdfSource source, String position, String margin, int startNumber, String format) throws Exception {
+        return run(source, List.of(pageNumbersStep(position, margin, startNumber, format)));
+    }
 
-            doc.save(out);
-            return out.toByteArray();
-        }
+    Step pageNumbersStep(String position, String margin, int startNumber, String format) {
+        String template = switch (format) {
+            case "pageX" -> "Page {page}";
+            case "xOfY" -> "{page} of {total}";
+            default -> "{page}";
+        };
+        PdfStamper.Stamp number = new PdfStamper.Text(template, PDType1Font.HELVETICA_BOLD, 12.0f, null, 1, 0,
+                PdfStamper.Anchor.parse(position, PdfStamper.Anchor.BOTTOM_RIGHT), PdfStamper.margin(margin));
+        // Drawn straight onto the pages we have, no new document needed
+        return chain -> stamper.stamp(chain, List.of(number), null, startNumber);
+    }
+
+    // ==========================================
+    // 8. WATERMARKS, HEADERS & FOOTERS
+    // ==========================================
+    public PdfOutput stamp(PdfSource source, List<PdfStamper.Stamp> stamps, String pages, int startNumber) throws Exception {
+        return run(source, List.of(stampStep(stamps, pages, startNumber)));
     }
+
+    // pages: which pages get the stamps (see PageSelection); blank = all of them
+    Step stampStep(List<PdfStamper.Stamp> stamps, String pages, int startNumber) {
+        return chain -> {
+            PageSelection selection = pages == null || pages.isBlank()
+                    ? null : PageSelection.compile(pages, chain.pages().size());
+            stamper.stamp(chain, stamps, selection, startNumber);
+        };
+    }
+
     private int gridCols(int pagesPerSheet) {
         return switch (pagesPerSheet) {
             case 2 -> 1;
@@ -280,10 +403,10 @@ public class PdfProcessingService {
         };
     }
 
-    private void drawOne(LayerUtility layer, PDDocument dest, PDDocument src, PDPageContentStream cs,
+    private void drawOne(LayerUtility layer, PDDocument src, PageIndex pages, PDPageContentStream cs,
                          int srcPageIndex0, int positionIndex, int pagesPerSheet, PDRectangle outSize) throws Exception {
 
-        if (srcPageIndex0 < 0 || srcPageIndex0 >= src.getNumberOfPages()) return;
+        if (srcPageIndex0 < 0 || srcPageIndex0 >= pages.size()) return;
 
         int cols = gridCols(pagesPerSheet);
         int rows = gridRows(pagesPerSheet);
@@ -297,8 +420,8 @@ public class PdfProcessingService {
         float cellX = col * cellW;
         float cellY = outSize.getHeight() - ((row + 1) * cellH);
 
-        PDPage srcPage = src.getPage(srcPageIndex0);
-        PDRectangle srcBox = (srcPage.getCropBox() != null) ? srcPage.getCropBox() : srcPage.getMediaBox();
+        PDPage srcPage = pages.page(srcPageIndex0);
+        PDRectangle srcBox = pages.cropBox(srcPageIndex0);
 
         float srcW = srcBox.getWidth();
         float srcH = srcBox.getHeight();
@@ -310,7 +433,8 @@ public class PdfProcessingService {
         float offsetX = cellX + (cellW - drawW) / 2f;
         float offsetY = cellY + (cellH - drawH) / 2f;
 
-        PDFormXObject form = layer.importPageAsForm(src, srcPageIndex0);
+        // Pass the page itself - the int overload would look it up in the page tree again
+        PDFormXObject form = layer.importPageAsForm(src, srcPage);
 
         cs.saveGraphicsState();
         cs.transform(Matrix.getTranslateInstance(offsetX, offsetY));
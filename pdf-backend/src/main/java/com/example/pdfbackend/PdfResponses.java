@@ -0,0 +1,53 @@
+package com.example.pdfbackend;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+// Response building shared by DocxController and JobController
+final class PdfResponses {
+
+    private static final String SERVER_TIMING = "Server-Timing";
+
+    private PdfResponses() {
+    }
+
+    static ResponseEntity<StreamingResponseBody> build(PdfOutput output, String defaultFilename) {
+        String filename = output.filename() != null ? output.filename() : defaultFilename;
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                .contentType(output.contentType());
+        // Without a Content-Length Tomcat falls back to chunked transfer
+        if (output.contentLength() >= 0) response.contentLength(output.contentLength());
+
+        ServerTiming timing = ServerTiming.current();
+        if (timing != null && !timing.isEmpty()) {
+            // Ours, merged with the operation's own breakdown
+            if (output.contentLength() >= 0) timing.outputBytes(output.contentLength());
+            response.header(SERVER_TIMING, timing.header(output.headers().get(SERVER_TIMING)));
+            output.headers().forEach((name, value) -> {
+                if (!name.equals(SERVER_TIMING)) response.header(name, value);
+            });
+            // Only a result written on the fly has serialize still to come, as a trailer. Trailer
+            // fields make Tomcat switch to chunked, which would cost a sized result its Content-Length.
+            if (output.contentLength() < 0) {
+                response.header(HttpHeaders.TRAILER, SERVER_TIMING);
+                timing.sendTrailer();
+            }
+        } else {
+            output.headers().forEach(response::header);
+        }
+
+        // Written after the handler returns, straight into the servlet output stream
+        return response.body(out -> {
+            try (output) {
+                output.writeTo(out);
+            }
+        });
+    }
+
+    static ResponseEntity<StreamingResponseBody> tooManyRequests() {
+        byte[] message = "Too many requests. Please try again in a minute.".getBytes();
+        return ResponseEntity.status(429).body(out -> out.write(message));
+    }
+}
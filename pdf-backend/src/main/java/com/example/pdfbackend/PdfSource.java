@@ -0,0 +1,96 @@
+package com.example.pdfbackend;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.function.Supplier;
+
+// An uploaded PDF that lives in a scratch file instead of a byte[].
+// PDFBox parses it through a random-access file view, so only the pages and
+// objects it actually touches get pulled onto the heap.
+public class PdfSource implements Closeable {
+
+    private final Path file;
+    private final String filename;
+    private final long size;
+    private final Supplier<MemoryUsageSetting> memoryUsage;
+    private volatile String sha256;
+
+    PdfSource(Path file, String filename, Supplier<MemoryUsageSetting> memoryUsage) throws IOException {
+        this.file = file;
+        this.filename = filename;
+        this.size = Files.size(file);
+        this.memoryUsage = memoryUsage;
+    }
+
+    // Every call returns a fresh, independent document - PDDocument is not thread safe,
+    // so callers that want to work in parallel each load their own view.
+    public PDDocument load() throws IOException {
+        long start = System.nanoTime();
+        PDDocument doc = PDDocument.load(file.toFile(), memoryUsage.get());
+        PdfMetrics.loaded(doc, System.nanoTime() - start);
+        return doc;
+    }
+
+    // Only to look at document-level entries (the catalog): the parse counts, its pages don't
+    public PDDocument peek() throws IOException {
+        long start = System.nanoTime();
+        PDDocument doc = PDDocument.load(file.toFile(), memoryUsage.get());
+        PdfMetrics.loaded(null, System.nanoTime() - start);
+        return doc;
+    }
+
+    public InputStream openStream() throws IOException {
+        return Files.newInputStream(file);
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    public String filename() {
+        return filename;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    // Hex SHA-256 of the file, computed on first use
+    public String sha256() throws IOException {
+        String hash = sha256;
+        if (hash == null) {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = openStream()) {
+                int n;
+                while ((n = in.read(buffer)) > 0) digest.update(buffer, 0, n);
+            }
+            hash = HexFormat.of().formatHex(digest.digest());
+            sha256 = hash;
+        }
+        return hash;
+    }
+
+    @Override
+    public void close() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // Scratch dir is cleaned on restart anyway
+        }
+    }
+}
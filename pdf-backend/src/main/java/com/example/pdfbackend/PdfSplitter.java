@@ -0,0 +1,349 @@
+package com.example.pdfbackend;
+
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// Splits one document into several. The "pages" spec is one of
+//   "1-3,5,7-"   one part per comma-separated term (any PageSelection term: "odd", "10-1", "1-:5"...)
+//   "1-3,8; 4-"  one part per semicolon-separated selection
+//   "every 3"    consecutive parts of 3 pages
+//   "bookmarks"  a part per top-level bookmark
+// A single part comes back as a plain PDF. Several are streamed as a ZIP: parts are built
+// ahead on the shared workers (a bounded window of them, each in a scratch file) and copied
+// into the archive in order, so only the window is ever waiting on disk.
+@Component
+public class PdfSplitter {
+
+    static final MediaType APPLICATION_ZIP = MediaType.parseMediaType("application/zip");
+
+    private static final Pattern EVERY = Pattern.compile("every\\s*:?\\s*(\\d+)(\\s*pages?)?");
+    private static final Pattern BOOKMARKS = Pattern.compile("(at\\s+)?bookmarks?");
+
+    // A part: 0-based source pages, in output order
+    record Part(String name, int[] pages) {
+    }
+
+    private final PdfSpool spool;
+    private final PdfWorkers workers;
+    private final AdmissionControl admission;
+    private final int window;
+
+    public PdfSplitter(
+            PdfSpool spool,
+            PdfWorkers workers,
+            AdmissionControl admission,
+            @Value("${pdf.split.window:0}") int window
+    ) {
+        this.spool = spool;
+        this.workers = workers;
+        this.admission = admission;
+        // 0 = two parts per worker: one being built, one ready to go
+        this.window = window > 0 ? window : 2 * workers.parallelism();
+    }
+
+    public PdfOutput split(PdfSource source, String spec) throws Exception {
+        PDDocument src = source.load();
+        try {
+            PageIndex pages = PageIndex.of(src);
+            List<Part> parts = plan(spec, src, pages);
+
+            if (parts.size() == 1) {
+                PDDocument dest = new PDDocument(spool.memoryUsage());
+                PdfOutput output = PdfOutput.of(dest, src);
+                try {
+                    for (PDPage page : PageExtractor.extract(pages, parts.get(0).pages())) dest.addPage(page);
+                    return output;
+                } catch (Exception e) {
+                    output.close();
+                    throw e;
+                }
+            }
+
+            Views views = new Views(source, src, pages, admission);
+            String archiveName = PdfOperation.SPLIT.filename().replace(".pdf", ".zip");
+            return PdfOutput.streaming(out -> writeZip(out, parts, views), views)
+                    .as(APPLICATION_ZIP, archiveName)
+                    .header("X-Split-Parts", Integer.toString(parts.size()));
+        } catch (Exception e) {
+            src.close();
+            throw e;
+        }
+    }
+
+    // ===== PLANNING =====
+
+    static List<Part> plan(String spec, PDDocument src, PageIndex pages) throws IOException {
+        String normalized = spec == null ? "" : spec.trim().toLowerCase(Locale.ROOT);
+        if (normalized.isEmpty()) {
+            throw new IllegalArgumentException("Please say which pages to split, e.g. \"1-3,5,7-\" or \"every 2\".");
+        }
+        if (pages.size() == 0) throw new IllegalArgumentException("This PDF has no pages.");
+
+        Matcher every = EVERY.matcher(normalized);
+        if (every.matches()) return everyN(parseCount(every.group(1)), pages.size());
+        if (BOOKMARKS.matcher(normalized).matches()) return atBookmarks(src, pages);
+        return byRanges(normalized, pages.size());
+    }
+
+    private static int parseCount(String digits) {
+        try {
+            int n = Integer.parseInt(digits);
+            if (n > 0) return n;
+        } catch (NumberFormatException ignored) {
+            // falls through to the error below
+        }
+        throw new IllegalArgumentException("Invalid split size: " + digits);
+    }
+
+    private static List<Part> everyN(int n, int pageCount) {
+        List<Part> parts = new ArrayList<>();
+        for (int from = 0; from < pageCount; from += n) {
+            parts.add(rangePart(parts.size(), from, Math.min(pageCount, from + n) - 1));
+        }
+        return parts;
+    }
+
+    // Each comma-separated term is a part. Parts that need several terms ("1-3,8; 4-7")
+    // are separated with semicolons instead.
+    private static List<Part> byRanges(String spec, int pageCount) {
+        String separator = spec.indexOf(';') >= 0 ? ";" : ",";
+        List<Part> parts = new ArrayList<>();
+        for (String group : spec.split(separator)) {
+            if (group.isBlank()) continue;
+            PageSelection selection = PageSelection.compile(group, pageCount);
+            parts.add(new Part(partPrefix(parts.size()) + "_" + describe(selection, group) + ".pdf", selection.pages()));
+        }
+        if (parts.isEmpty()) throw new IllegalArgumentException("Invalid page range: " + spec);
+        return parts;
+    }
+
+    private static List<Part> atBookmarks(PDDocument src, PageIndex pages) throws IOException {
+        PDDocumentOutline outline = src.getDocumentCatalog().getDocumentOutline();
+        Map<COSDictionary, Integer> pageNumbers = new IdentityHashMap<>();
+        for (int i = 0; i < pages.size(); i++) pageNumbers.put(pages.page(i).getCOSObject(), i);
+
+        // first page of each part -> title (the first bookmark wins when two point at the same page)
+        TreeMap<Integer, String> starts = new TreeMap<>();
+        if (outline != null) {
+            for (PDOutlineItem item : outline.children()) {
+                PDPage target = item.findDestinationPage(src);
+                Integer start = target == null ? null : pageNumbers.get(target.getCOSObject());
+                if (start != null) starts.putIfAbsent(start, item.getTitle());
+            }
+        }
+        if (starts.isEmpty()) throw new IllegalArgumentException("This PDF has no bookmarks to split at.");
+        // Pages before the first bookmark (a cover, say) still get a part of their own
+        starts.putIfAbsent(0, "Start");
+
+        List<Part> parts = new ArrayList<>();
+        List<Integer> bounds = new ArrayList<>(starts.keySet());
+        for (int i = 0; i < bounds.size(); i++) {
+            int from = bounds.get(i);
+            int to = i + 1 < bounds.size() ? bounds.get(i + 1) - 1 : pages.size() - 1;
+            parts.add(new Part(partPrefix(parts.size()) + "_" + sanitize(starts.get(from)) + ".pdf", sequence(from, to)));
+        }
+        return parts;
+    }
+
+    private static Part rangePart(int index, int from0, int to0) {
+        return new Part(partPrefix(index) + "_" + describeRange(from0, to0) + ".pdf", sequence(from0, to0));
+    }
+
+    private static String describe(PageSelection selection, String group) {
+        int[] pages = selection.pages();
+        if (selection.isContiguous()) return describeRange(pages[0], pages[pages.length - 1]);
+        return "pages_" + sanitize(group.replace(" ", ""));
+    }
+
+    private static String describeRange(int from0, int to0) {
+        return from0 == to0 ? "page_" + (from0 + 1) : "pages_" + (from0 + 1) + "-" + (to0 + 1);
+    }
+
+    private static String partPrefix(int index) {
+        return String.format(Locale.ROOT, "part%03d", index + 1);
+    }
+
+    private static int[] sequence(int from0, int to0) {
+        int[] pages = new int[to0 - from0 + 1];
+        for (int i = 0; i < pages.length; i++) pages[i] = from0 + i;
+        return pages;
+    }
+
+    // Bookmark titles end up as file names inside the ZIP
+    private static String sanitize(String title) {
+        String name = title == null ? "" : title.replaceAll("[^\\p{L}\\p{N} ._-]", "_").trim();
+        if (name.length() > 60) name = name.substring(0, 60).trim();
+        return name.isEmpty() ? "Untitled" : name;
+    }
+
+    // ===== ZIP OUTPUT =====
+
+    private void writeZip(OutputStream out, List<Part> parts, Views views) throws IOException {
+        Deque<ForkJoinTask<Path>> inFlight = new ArrayDeque<>();
+        int submitted = 0;
+        ZipOutputStream zip = new ZipOutputStream(out);
+        // The parts are PDFs, so mostly compressed already
+        zip.setLevel(Deflater.BEST_SPEED);
+        try {
+            for (Part part : parts) {
+                // Keep the window full: the next few parts are built while this one is copied out
+                while (submitted < parts.size() && inFlight.size() < window) {
+                    Part next = parts.get(submitted++);
+                    inFlight.addLast(workers.pool().submit(() -> buildPart(next, views)));
+                }
+
+                Path file = await(inFlight.pollFirst());
+                try {
+                    zip.putNextEntry(new ZipEntry(part.name()));
+                    Files.copy(file, zip);
+                    zip.closeEntry();
+                } finally {
+                    Files.deleteIfExists(file);
+                }
+            }
+            zip.finish();
+        } finally {
+            // Client gone or a part failed: let the ones still running finish, then drop their files
+            for (ForkJoinTask<Path> task : inFlight) {
+                try {
+                    Files.deleteIfExists(task.get());
+                } catch (Exception ignored) {
+                    // it failed on its own, nothing to clean up
+                }
+            }
+        }
+    }
+
+    private Path buildPart(Part part, Views views) throws IOException {
+        Views.View view = views.borrow();
+        Path file = spool.newScratchFile("split-", ".pdf");
+        try (PDDocument dest = new PDDocument(spool.memoryUsage())) {
+            // Copies: the view's pages go on to other parts (see PageExtractor)
+            for (PDPage page : PageExtractor.extract(view.pages(), part.pages())) dest.addPage(page);
+            dest.save(file.toFile());
+            return file;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        } finally {
+            views.giveBack(view);
+        }
+    }
+
+    private static Path await(ForkJoinTask<Path> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while splitting");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            if (e.getCause() instanceof Error error) throw error;
+            throw new IOException("Failed to build part", e.getCause());
+        }
+    }
+
+    // Loads of the source, one per part being built at the same time (PDDocument isn't thread
+    // safe). Pages added to a part are still read from the view, so a view is only handed to the
+    // next part once the previous one has been saved. Closing the output closes them all.
+    // The split was admitted for the first load only: every further one needs a permit of its own,
+    // held as long as the view. Without one a part waits for a view another part is done with.
+    private static final class Views implements AutoCloseable {
+
+        record View(PDDocument doc, PageIndex pages, AdmissionControl.Permit permit) {
+        }
+
+        private final PdfSource source;
+        private final AdmissionControl admission;
+        private final long viewCost;
+        private final LinkedBlockingQueue<View> idle = new LinkedBlockingQueue<>();
+        private final List<View> all = new ArrayList<>();
+
+        Views(PdfSource source, PDDocument first, PageIndex firstPages, AdmissionControl admission) {
+            this.source = source;
+            this.admission = admission;
+            this.viewCost = admission.estimate(PdfOperation.SPLIT, source.size());
+            View view = new View(first, firstPages, null);
+            all.add(view);
+            idle.add(view);
+        }
+
+        View borrow() throws IOException {
+            View view = idle.poll();
+            if (view != null) return view;
+            AdmissionControl.Permit permit = admission.tryAdmit(viewCost);
+            if (permit == null) {
+                // Always comes back: every view that isn't idle is held by a part being built
+                try {
+                    return idle.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a view");
+                }
+            }
+            try {
+                PDDocument doc = source.load();
+                view = new View(doc, PageIndex.of(doc), permit);
+            } catch (IOException | RuntimeException e) {
+                permit.close();
+                throw e;
+            }
+            synchronized (all) {
+                all.add(view);
+            }
+            return view;
+        }
+
+        void giveBack(View view) {
+            idle.add(view);
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            synchronized (all) {
+                for (View view : all) {
+                    try {
+                        view.doc().close();
+                    } catch (IOException e) {
+                        if (failure == null) failure = e;
+                        else failure.addSuppressed(e);
+                    } finally {
+                        if (view.permit() != null) view.permit().close();
+                    }
+                }
+                all.clear();
+            }
+            if (failure != null) throw failure;
+        }
+    }
+}
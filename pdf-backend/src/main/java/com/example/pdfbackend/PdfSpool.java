@@ -0,0 +1,76 @@
+package com.example.pdfbackend;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// Owns the scratch directory and the heap/scratch budget PDFBox gets per document.
+@Component
+public class PdfSpool {
+
+    private final Path dir;
+    private final long maxMainMemoryBytes;
+    private final long maxScratchBytes;
+
+    public PdfSpool(
+            @Value("${pdf.spool.dir:}") String dir,
+            @Value("${pdf.memory.max-main:16MB}") DataSize maxMainMemory,
+            @Value("${pdf.memory.max-scratch:512MB}") DataSize maxScratch
+    ) throws IOException {
+        this.dir = dir.isBlank()
+                ? Path.of(System.getProperty("java.io.tmpdir"), "pdf-spool")
+                : Path.of(dir);
+        this.maxMainMemoryBytes = maxMainMemory.toBytes();
+        this.maxScratchBytes = maxScratch.toBytes();
+        Files.createDirectories(this.dir);
+    }
+
+    // Moves the upload into our own scratch file. Tomcat already wrote the part to disk,
+    // so transferTo is usually just a rename - the bytes never go through the heap.
+    public PdfSource spool(MultipartFile file) throws IOException {
+        Path target = newScratchFile("upload-", ".pdf");
+        try {
+            file.transferTo(target.toFile());
+            return new PdfSource(target, file.getOriginalFilename(), this::memoryUsage);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+
+    // All or nothing: if one upload fails to spool, the ones already spooled are released
+    public List<PdfSource> spoolAll(MultipartFile[] files) throws IOException {
+        List<PdfSource> sources = new ArrayList<>();
+        try {
+            for (MultipartFile file : files) sources.add(spool(file));
+            return sources;
+        } catch (IOException | RuntimeException e) {
+            sources.forEach(PdfSource::close);
+            throw e;
+        }
+    }
+
+    public Path newScratchFile(String prefix, String suffix) throws IOException {
+        return Files.createTempFile(dir, prefix, suffix);
+    }
+
+    // A fresh setting per document: up to maxMain bytes on the heap, the rest spills
+    // into scratch files under our spool dir.
+    public MemoryUsageSetting memoryUsage() {
+        return memoryUsage(maxMainMemoryBytes, maxScratchBytes);
+    }
+
+    // Same, with a budget of its own (e.g. a merge result, which holds many documents' worth)
+    public MemoryUsageSetting memoryUsage(long maxMainBytes, long maxScratchBytes) {
+        return MemoryUsageSetting.setupMixed(maxMainBytes, maxScratchBytes)
+                .setTempDir(dir.toFile());
+    }
+}
@@ -0,0 +1,334 @@
+package com.example.pdfbackend;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDFontDescriptor;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAppearanceStream;
+import org.apache.pdfbox.util.Matrix;
+import org.springframework.stereotype.Component;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+// Draws stamps - page numbers, headers and footers, text and image watermarks - onto the pages
+// of a document, in one pass over the pages however many stamps there are.
+//  - whatever is the same on every page (a watermark, a fixed header, an image) is drawn once
+//    into a form XObject, and each page only references it
+//  - text that changes per page ("{page} of {total}") is laid out from widths worked out once
+//    per document: the fixed parts, plus every digit - no font lookups per page
+//  - every page gets one small uncompressed stream appended; the "q" that isolates it from the
+//    page's own content is a single stream shared by all pages
+// So the cost per page stays flat, whether it's 5 pages or 5,000.
+@Component
+public class PdfStamper {
+
+    // Where a stamp sits: 0 = left/bottom, 0.5 = centre, 1 = right/top, inset by the margin
+    record Anchor(float x, float y) {
+
+        static final Anchor CENTER = new Anchor(0.5f, 0.5f);
+        static final Anchor BOTTOM_RIGHT = new Anchor(1, 0);
+
+        // "bottomRight", "topLeft", "topCenter", "center"... Column and row each fall back to the
+        // default's when the position doesn't name one
+        static Anchor parse(String position, Anchor fallback) {
+            if (position == null || position.isBlank()) return fallback;
+            String value = position.toLowerCase(Locale.ROOT);
+            float x = fallback.x;
+            float y = fallback.y;
+            if (value.contains("left")) x = 0;
+            else if (value.contains("right")) x = 1;
+            else if (value.contains("center") || value.contains("centre")) x = 0.5f;
+            if (value.contains("top")) y = 1;
+            else if (value.contains("bottom")) y = 0;
+            else if (value.contains("middle") || value.equals("center") || value.equals("centre")) y = 0.5f;
+            return new Anchor(x, y);
+        }
+    }
+
+    // Something to draw on the pages
+    sealed interface Stamp permits Text, Image {
+    }
+
+    // Text; "{page}" and "{total}" are filled in per page. color null = black.
+    record Text(String template, PDFont font, float fontSize, Color color, float opacity, float rotation,
+                Anchor anchor, float margin) implements Stamp {
+    }
+
+    // An image file (PNG, JPEG...), drawn scale x the page width wide
+    record Image(Path file, float scale, float opacity, float rotation, Anchor anchor, float margin) implements Stamp {
+    }
+
+    // Margins by name, as the page-number tool has always offered them
+    static float margin(String name) {
+        if ("tight".equals(name)) return 15f;
+        if ("wide".equals(name)) return 50f;
+        return 30f;
+    }
+
+    // Stamps the selected pages (null = all). {page} counts from startNumber on the first stamped page.
+    public void stamp(DocumentChain chain, List<Stamp> stamps, PageSelection selection, int startNumber) throws IOException {
+        if (stamps.isEmpty()) return;
+        PDDocument doc = chain.current();
+        PageIndex pages = chain.pages();
+        int[] selected = selection != null ? selection.pages() : allPages(pages.size());
+        int total = startNumber + selected.length - 1;
+
+        List<Prepared> prepared = new ArrayList<>();
+        for (Stamp stamp : stamps) prepared.add(prepare(doc, stamp, total));
+
+        COSStream saveState = doc.getDocument().createCOSStream();
+        try (OutputStream out = saveState.createOutputStream()) {
+            out.write("q\n".getBytes(StandardCharsets.US_ASCII));
+        }
+
+        for (int ordinal = 0; ordinal < selected.length; ordinal++) {
+            int index = selected[ordinal];
+            PDPage page = pages.page(index);
+            Box box = Box.of(pages.cropBox(index), page.getRotation());
+
+            isolateContents(page, saveState);
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page, PDPageContentStream.AppendMode.APPEND, false, false)) {
+                // Back to the state the page started with, whatever its own content left behind
+                cs.restoreGraphicsState();
+                for (Prepared stamp : prepared) stamp.draw(cs, box, startNumber + ordinal);
+            }
+            chain.appended(page);
+        }
+    }
+
+    private static int[] allPages(int count) {
+        int[] pages = new int[count];
+        for (int i = 0; i < count; i++) pages[i] = i;
+        return pages;
+    }
+
+    // Contents becomes [shared "q", the page's own streams...]; ours is appended after them.
+    // A new array every time, since the old one may be shared with other pages.
+    private static void isolateContents(PDPage page, COSStream saveState) {
+        COSDictionary dict = page.getCOSObject();
+        COSArray contents = new COSArray();
+        contents.add(saveState);
+        COSBase existing = dict.getDictionaryObject(COSName.CONTENTS);
+        if (existing instanceof COSArray array) {
+            for (COSBase stream : array) contents.add(stream);
+        } else if (existing != null) {
+            contents.add(dict.getItem(COSName.CONTENTS));
+        }
+        dict.setItem(COSName.CONTENTS, contents);
+    }
+
+    // ===== PREPARED ONCE PER DOCUMENT =====
+
+    private interface Prepared {
+        void draw(PDPageContentStream cs, Box page, int number) throws IOException;
+    }
+
+    private static Prepared prepare(PDDocument doc, Stamp stamp, int total) throws IOException {
+        return switch (stamp) {
+            case Text text -> {
+                Layout layout = new Layout(text.template().replace("{total}", Integer.toString(total)), text.font(), text.fontSize());
+                if (layout.isFixed()) yield FormStamp.ofText(doc, text, layout);
+                yield new TextStamp(text, layout, opacityState(text.opacity()));
+            }
+            case Image image -> FormStamp.ofImage(doc, image);
+        };
+    }
+
+    private static PDExtendedGraphicsState opacityState(float opacity) {
+        if (opacity >= 1) return null;
+        PDExtendedGraphicsState state = new PDExtendedGraphicsState();
+        state.setNonStrokingAlphaConstant(opacity);
+        state.setStrokingAlphaConstant(opacity);
+        return state;
+    }
+
+    // Drawn once into a form XObject; every page just places it
+    private record FormStamp(PDFormXObject form, float formWidth, float formHeight, Sizing sizing,
+                             float rotation, Anchor anchor, float margin) implements Prepared {
+
+        // The stamp's size on a given page
+        interface Sizing {
+            float[] size(Box page);
+        }
+
+        // PDFBox 2 can only write content into a form that's an appearance stream - which is
+        // just a form XObject, so pages can place it like any other
+        private static PDAppearanceStream newForm(PDDocument doc) {
+            PDAppearanceStream form = new PDAppearanceStream(doc);
+            form.setResources(new PDResources());
+            return form;
+        }
+
+        static FormStamp ofText(PDDocument doc, Text text, Layout layout) throws IOException {
+            String value = layout.text(0);
+            float width = layout.width(0);
+            float height = text.fontSize();
+            PDFontDescriptor descriptor = text.font().getFontDescriptor();
+            float descent = descriptor != null ? descriptor.getDescent() / 1000 * text.fontSize() : -0.25f * text.fontSize();
+
+            PDAppearanceStream form = newForm(doc);
+            // Baseline at 0, with room for descenders below it
+            form.setBBox(new PDRectangle(0, descent, width, height - descent));
+            try (PDPageContentStream cs = new PDPageContentStream(doc, form)) {
+                PDExtendedGraphicsState state = opacityState(text.opacity());
+                if (state != null) cs.setGraphicsStateParameters(state);
+                cs.beginText();
+                cs.setFont(text.font(), text.fontSize());
+                if (text.color() != null) cs.setNonStrokingColor(text.color());
+                cs.showText(value);
+                cs.endText();
+            }
+            return new FormStamp(form, width, height, page -> new float[]{width, height},
+                    text.rotation(), text.anchor(), text.margin());
+        }
+
+        static FormStamp ofImage(PDDocument doc, Image image) throws IOException {
+            PDImageXObject xobject;
+            try {
+                xobject = PDImageXObject.createFromFileByContent(image.file().toFile(), doc);
+            } catch (IOException | IllegalArgumentException e) {
+                throw new IllegalArgumentException("Couldn't read the watermark image (PNG or JPEG expected).");
+            }
+            float aspect = (float) xobject.getHeight() / xobject.getWidth();
+
+            // A unit square holding the image, stretched to size on every page
+            PDAppearanceStream form = newForm(doc);
+            form.setBBox(new PDRectangle(0, 0, 1, 1));
+            try (PDPageContentStream cs = new PDPageContentStream(doc, form)) {
+                PDExtendedGraphicsState state = opacityState(image.opacity());
+                if (state != null) cs.setGraphicsStateParameters(state);
+                cs.drawImage(xobject, 0, 0, 1, 1);
+            }
+            return new FormStamp(form, 1, 1, page -> {
+                float width = image.scale() * page.width();
+                return new float[]{width, width * aspect};
+            }, image.rotation(), image.anchor(), image.margin());
+        }
+
+        @Override
+        public void draw(PDPageContentStream cs, Box page, int number) throws IOException {
+            float[] size = sizing.size(page);
+            Matrix placement = page.place(anchor, margin, size[0], size[1], rotation);
+            placement.scale(size[0] / formWidth, size[1] / formHeight);
+            cs.saveGraphicsState();
+            if (page.toUser() != null) cs.transform(page.toUser());
+            cs.transform(placement);
+            cs.drawForm(form);
+            cs.restoreGraphicsState();
+        }
+    }
+
+    // Text that changes per page, laid out from the precomputed widths
+    private record TextStamp(Text text, Layout layout, PDExtendedGraphicsState opacity) implements Prepared {
+
+        @Override
+        public void draw(PDPageContentStream cs, Box page, int number) throws IOException {
+            Matrix placement = page.place(text.anchor(), text.margin(), layout.width(number), text.fontSize(), text.rotation());
+            cs.saveGraphicsState();
+            if (page.toUser() != null) cs.transform(page.toUser());
+            if (opacity != null) cs.setGraphicsStateParameters(opacity);
+            cs.beginText();
+            cs.setFont(text.font(), text.fontSize());
+            if (text.color() != null) cs.setNonStrokingColor(text.color());
+            cs.setTextMatrix(placement);
+            cs.showText(layout.text(number));
+            cs.endText();
+            cs.restoreGraphicsState();
+        }
+    }
+
+    // A text template split around "{page}": the fixed parts with their widths, and the width of
+    // every character a page number can contain
+    private static final class Layout {
+        private static final String PAGE = "{page}";
+
+        private final String[] fixed;
+        private final float fixedWidth;
+        private final float[] digitWidths = new float[10];
+        private final float minusWidth;
+
+        Layout(String template, PDFont font, float fontSize) throws IOException {
+            this.fixed = template.split(Pattern.quote(PAGE), -1);
+            float width = 0;
+            // Also checks every character can be drawn with this font, before any page is touched
+            for (String part : fixed) width += font.getStringWidth(part) / 1000 * fontSize;
+            this.fixedWidth = width;
+            if (isFixed()) {
+                this.minusWidth = 0;
+                return;
+            }
+            for (int digit = 0; digit < 10; digit++) {
+                digitWidths[digit] = font.getStringWidth(Integer.toString(digit)) / 1000 * fontSize;
+            }
+            this.minusWidth = font.getStringWidth("-") / 1000 * fontSize;
+        }
+
+        boolean isFixed() {
+            return fixed.length == 1;
+        }
+
+        String text(int number) {
+            if (isFixed()) return fixed[0];
+            return String.join(Integer.toString(number), fixed);
+        }
+
+        float width(int number) {
+            if (isFixed()) return fixedWidth;
+            String digits = Integer.toString(number);
+            float width = 0;
+            for (int i = 0; i < digits.length(); i++) {
+                char c = digits.charAt(i);
+                width += c == '-' ? minusWidth : digitWidths[c - '0'];
+            }
+            return fixedWidth + width * (fixed.length - 1);
+        }
+    }
+
+    // A page as the reader sees it: its size once /Rotate is applied, and the matrix that takes
+    // those upright coordinates back into the page's own user space (null when they're the same)
+    private record Box(float width, float height, Matrix toUser) {
+
+        static Box of(PDRectangle crop, int rotation) {
+            float x = crop.getLowerLeftX();
+            float y = crop.getLowerLeftY();
+            float w = crop.getWidth();
+            float h = crop.getHeight();
+            return switch (((rotation % 360) + 360) % 360) {
+                case 90 -> new Box(h, w, new Matrix(0, 1, -1, 0, x + w, y));
+                case 180 -> new Box(w, h, new Matrix(-1, 0, 0, -1, x + w, y + h));
+                case 270 -> new Box(h, w, new Matrix(0, -1, 1, 0, x, y + h));
+                default -> new Box(w, h, x == 0 && y == 0 ? null : Matrix.getTranslateInstance(x, y));
+            };
+        }
+
+        // Puts a width x height box at the anchor, turned by rotation degrees around its centre
+        Matrix place(Anchor anchor, float margin, float boxWidth, float boxHeight, float rotation) {
+            float x = margin + anchor.x() * (width - 2 * margin - boxWidth);
+            float y = margin + anchor.y() * (height - 2 * margin - boxHeight);
+            if (rotation == 0) return Matrix.getTranslateInstance(x, y);
+            Matrix matrix = Matrix.getTranslateInstance(x + boxWidth / 2, y + boxHeight / 2);
+            matrix.rotate(Math.toRadians(rotation));
+            matrix.translate(-boxWidth / 2, -boxHeight / 2);
+            return matrix;
+        }
+    }
+}
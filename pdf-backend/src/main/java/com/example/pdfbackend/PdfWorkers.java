@@ -0,0 +1,34 @@
+package com.example.pdfbackend;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ForkJoinPool;
+
+// The CPU workers shared by everything that splits one document's work across cores
+// (parallel N-up ranges, image recompression...). One pool for all of them, so two big
+// requests can't each spin up a core's worth of threads.
+@Component
+public class PdfWorkers {
+
+    private final ForkJoinPool pool;
+
+    public PdfWorkers(@Value("${pdf.workers.parallelism:0}") int parallelism) {
+        // 0 = one worker per core
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    public ForkJoinPool pool() {
+        return pool;
+    }
+
+    public int parallelism() {
+        return pool.getParallelism();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+}
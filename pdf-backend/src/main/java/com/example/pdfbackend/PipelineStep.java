@@ -0,0 +1,40 @@
+package com.example.pdfbackend;
+
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// One step of a /pipeline request, e.g. {"op": "delete", "params": {"pages": "1"}}.
+// The steps arrive as a JSON array in the "steps" form field.
+public record PipelineStep(String op, Map<String, Object> params) {
+
+    static final int MAX_STEPS = 20;
+
+    public static List<PipelineStep> parseAll(String json) {
+        List<PipelineStep> steps;
+        try {
+            steps = JsonMapper.shared().readValue(json, new TypeReference<List<PipelineStep>>() {
+            });
+        } catch (JacksonException e) {
+            throw new IllegalArgumentException("Invalid pipeline steps: " + e.getOriginalMessage());
+        }
+        if (steps == null || steps.isEmpty()) throw new IllegalArgumentException("A pipeline needs at least one step.");
+        if (steps.size() > MAX_STEPS) throw new IllegalArgumentException("A pipeline can have at most " + MAX_STEPS + " steps.");
+        return steps;
+    }
+
+    // The step as an operation request of its own, so parameters are read (and checked) the same way.
+    // Numbers and booleans are accepted as well as strings.
+    public OperationRequest toRequest() {
+        if (op == null) throw new IllegalArgumentException("Every pipeline step needs an \"op\".");
+        Map<String, String> values = new LinkedHashMap<>();
+        if (params != null) params.forEach((name, value) -> {
+            if (value != null) values.put(name, String.valueOf(value));
+        });
+        return new OperationRequest(PdfOperation.fromPath(op), List.of(), values);
+    }
+}
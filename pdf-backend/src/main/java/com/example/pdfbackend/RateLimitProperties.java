@@ -0,0 +1,27 @@
+package com.example.pdfbackend;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.Map;
+
+// pdf.rate-limit.* - every client gets a token bucket; each request costs its endpoint's
+// weight plus costPerMb for every MB uploaded.
+@ConfigurationProperties("pdf.rate-limit")
+public record RateLimitProperties(
+        @DefaultValue("10") double capacity,
+        @DefaultValue("10") double refillPerMinute,
+        @DefaultValue("0.25") double costPerMb,
+        @DefaultValue("1") double defaultCost,
+        @DefaultValue Map<String, Double> endpointCost,
+        @DefaultValue("50000") int maxClients,
+        @DefaultValue("60s") Duration sweepInterval
+) {
+
+    public double costOf(String endpoint, long uploadBytes) {
+        double cost = endpointCost.getOrDefault(endpoint, defaultCost) + costPerMb * uploadBytes / (1024.0 * 1024.0);
+        // A single request may drain the bucket but never needs more than a full one
+        return Math.min(cost, capacity);
+    }
+}
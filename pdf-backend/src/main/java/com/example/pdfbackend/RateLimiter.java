@@ -0,0 +1,126 @@
+package com.example.pdfbackend;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Token bucket per client IP, shared by every controller.
+// State per client is two primitives, so memory stays O(clients) no matter the traffic,
+// and buckets that have been idle long enough to refill completely are dropped again.
+// Requests only touch their own client's bucket: the map is concurrent, and each bucket is its
+// own lock. Keeping to maxClients is left to the sweep, which drops the least recently seen ones
+// past it - so between sweeps an address scan or a flood of made-up X-Forwarded-For values can
+// briefly push the map over, but costs the request path nothing, and every newcomer still gets
+// a bucket of its own.
+@Component
+public class RateLimiter {
+
+    private final RateLimitProperties limits;
+    private final double tokensPerNano;
+    private final long nanosToFull;
+
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public RateLimiter(RateLimitProperties limits) {
+        this.limits = limits;
+        this.tokensPerNano = limits.refillPerMinute() / 60_000_000_000.0;
+        this.nanosToFull = (long) Math.ceil(limits.capacity() / tokensPerNano);
+    }
+
+    public boolean allowRequest(HttpServletRequest request, String endpoint, MultipartFile... uploads) {
+        long uploadBytes = 0;
+        for (MultipartFile upload : uploads) {
+            if (upload != null) uploadBytes += upload.getSize();
+        }
+        return allowRequest(clientIp(request), endpoint, uploadBytes);
+    }
+
+    public boolean allowRequest(String client, String endpoint, long uploadBytes) {
+        return allowRequest(client, endpoint, uploadBytes, System.nanoTime());
+    }
+
+    // now in System.nanoTime() terms
+    boolean allowRequest(String client, String endpoint, long uploadBytes, long now) {
+        double cost = limits.costOf(endpoint, uploadBytes);
+        return bucketFor(client, now).tryConsume(cost, now);
+    }
+
+    public int trackedClients() {
+        return buckets.size();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    // A bucket that would be full again by now is indistinguishable from a fresh one, so those go
+    // first; if that still leaves more than maxClients, the least recently seen of the rest follow.
+    @Scheduled(fixedDelayString = "${pdf.rate-limit.sweep-interval:60s}")
+    public void evictIdle() {
+        evictIdle(System.nanoTime());
+    }
+
+    void evictIdle(long now) {
+        for (Map.Entry<String, Bucket> entry : buckets.entrySet()) {
+            if (now - entry.getValue().lastSeen >= nanosToFull && buckets.remove(entry.getKey(), entry.getValue())) {
+                evictions.incrementAndGet();
+            }
+        }
+
+        int over = buckets.size() - limits.maxClients();
+        if (over <= 0) return;
+        // Oldest first, by lastSeen as read once per bucket (it keeps moving while this sorts).
+        // A client seen while this runs just gets a new bucket.
+        List<Seen> oldest = new ArrayList<>();
+        buckets.forEach((client, bucket) -> oldest.add(new Seen(client, bucket, bucket.lastSeen)));
+        oldest.sort(Comparator.comparingLong(Seen::lastSeen));
+        for (Seen seen : oldest.subList(0, Math.min(over, oldest.size()))) {
+            if (buckets.remove(seen.client(), seen.bucket())) evictions.incrementAndGet();
+        }
+    }
+
+    private record Seen(String client, Bucket bucket, long lastSeen) {
+    }
+
+    private Bucket bucketFor(String client, long now) {
+        Bucket bucket = buckets.get(client);
+        if (bucket != null) return bucket;
+        return buckets.computeIfAbsent(client, key -> new Bucket(limits.capacity(), now));
+    }
+
+    private static String clientIp(HttpServletRequest request) {
+        String ip = request.getHeader("X-Forwarded-For");
+        if (ip == null || ip.isBlank()) {
+            return request.getRemoteAddr();
+        }
+        return ip.split(",")[0].trim();
+    }
+
+    private final class Bucket {
+        private double tokens;
+        private volatile long lastSeen;
+
+        Bucket(double tokens, long now) {
+            this.tokens = tokens;
+            this.lastSeen = now;
+        }
+
+        // Refill lazily from the elapsed time, then take the cost if it's there
+        synchronized boolean tryConsume(double cost, long now) {
+            tokens = Math.min(limits.capacity(), tokens + (now - lastSeen) * tokensPerNano);
+            lastSeen = now;
+            if (tokens < cost) return false;
+            tokens -= cost;
+            return true;
+        }
+    }
+}
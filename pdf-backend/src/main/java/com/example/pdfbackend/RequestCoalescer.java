@@ -0,0 +1,260 @@
+package com.example.pdfbackend;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Single flight for identical requests (same OperationRequest.contentKey) arriving while the
+// first one is still being computed - double taps, client retries. The first caller (the leader)
+// does the work and streams the result to its own client as usual. If anyone joined by the time
+// it starts writing, the bytes are also copied on their way out (in memory, or a scratch file
+// past the spill threshold), the flight stays open to more joiners until the write is done, and
+// they're all served from that copy instead of parsing and rendering the same document again.
+// Nobody joined: nothing is copied and the flight ends there. Followers wait for the leader's
+// whole response; if it never completes (client gone) they do the work themselves.
+@Component
+public class RequestCoalescer {
+
+    @FunctionalInterface
+    public interface Work {
+        PdfOutput run() throws Exception;
+    }
+
+    private final PdfSpool spool;
+    private final boolean enabled;
+    private final Set<PdfOperation> operations;
+    private final long maxWaitMillis;
+    private final long spillThresholdBytes;
+
+    private final ConcurrentHashMap<String, Flight> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong leaders = new AtomicLong();
+    private final AtomicLong followers = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    public RequestCoalescer(
+            PdfSpool spool,
+            @Value("${pdf.coalesce.enabled:true}") boolean enabled,
+            @Value("${pdf.coalesce.operations:convert,compress}") List<String> operations,
+            @Value("${pdf.coalesce.max-wait:60s}") Duration maxWait,
+            @Value("${pdf.coalesce.spill-threshold:4MB}") DataSize spillThreshold
+    ) {
+        this.spool = spool;
+        this.enabled = enabled;
+        this.operations = EnumSet.noneOf(PdfOperation.class);
+        for (String op : operations) {
+            if (!op.isBlank()) this.operations.add(PdfOperation.fromPath(op.trim()));
+        }
+        this.maxWaitMillis = maxWait.toMillis();
+        this.spillThresholdBytes = spillThreshold.toBytes();
+    }
+
+    public boolean covers(PdfOperation operation) {
+        return enabled && operations.contains(operation);
+    }
+
+    public PdfOutput run(String key, Work work) throws Exception {
+        Flight flight = new Flight(key);
+        Flight leader = inFlight.putIfAbsent(key, flight);
+        if (leader != null) {
+            if (leader.join()) return follow(leader, work);
+            // Finished just now - it's been removed, so the next attempt leads a new flight
+            return run(key, work);
+        }
+
+        leaders.incrementAndGet();
+        PdfOutput output;
+        try {
+            output = work.run();
+        } catch (Exception | Error e) {
+            flight.end();
+            flight.result.completeExceptionally(e);
+            throw e;
+        }
+        return flight.lead(output);
+    }
+
+    private PdfOutput follow(Flight leader, Work work) throws Exception {
+        followers.incrementAndGet();
+        Shared shared;
+        try {
+            shared = leader.result.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Taking too long: give our reference back whenever it finishes, and do the work ourselves
+            timeouts.incrementAndGet();
+            leader.result.thenAccept(s -> {
+                if (s != null) s.release();
+            });
+            return work.run();
+        } catch (ExecutionException e) {
+            // Same input, same failure (e.g. a 400 for a bad parameter)
+            if (e.getCause() instanceof Exception cause) throw cause;
+            if (e.getCause() instanceof Error error) throw error;
+            throw e;
+        }
+        // The leader's response didn't get written out in full, so there's no copy
+        if (shared == null) return work.run();
+        // Our own cache status, not the leader's MISS
+        return shared.open().header("X-Cache", "COALESCED").header("X-Coalesced", "true");
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("operations", operations.stream().map(PdfOperation::path).toList());
+        stats.put("inFlight", inFlight.size());
+        stats.put("leaders", leaders.get());
+        stats.put("followers", followers.get());
+        stats.put("timeouts", timeouts.get());
+        return stats;
+    }
+
+    private final class Flight {
+        final String key;
+        // The copy for the followers; null when there's none (nobody joined, or the write failed)
+        final CompletableFuture<Shared> result = new CompletableFuture<>();
+        private int joined;
+        private boolean closed;
+
+        Flight(String key) {
+            this.key = key;
+        }
+
+        synchronized boolean join() {
+            if (closed) return false;
+            joined++;
+            return true;
+        }
+
+        // Out of the map first, so whoever finds it closed and retries starts a new flight.
+        // Returns how many joined; nobody can join after this.
+        synchronized int end() {
+            inFlight.remove(key, this);
+            closed = true;
+            return joined;
+        }
+
+        // Nobody waiting yet: end here, the leader writes on its own
+        private synchronized boolean shareWrite() {
+            if (joined > 0) return true;
+            end();
+            return false;
+        }
+
+        PdfOutput lead(PdfOutput output) {
+            return output.wrapBody(body -> out -> {
+                if (!shareWrite()) {
+                    result.complete(null);
+                    body.writeTo(out);
+                    return;
+                }
+                Tee tee = new Tee(out, new SpillBuffer(spool, spillThresholdBytes, "shared-"));
+                boolean written = false;
+                try {
+                    body.writeTo(tee);
+                    written = true;
+                } finally {
+                    int references = end();
+                    tee.copy.close();
+                    if (written && !tee.broken) {
+                        result.complete(new Shared(tee.copy, output, references));
+                    } else {
+                        tee.copy.discard();
+                        result.complete(null);
+                    }
+                }
+            }).closing(() -> {
+                // Closed without being written (e.g. the client went away first)
+                if (!result.isDone()) {
+                    end();
+                    result.complete(null);
+                }
+            });
+        }
+    }
+
+    // The response stream plus a copy. A failing copy (scratch disk full...) is dropped; the
+    // leader's own response carries on.
+    private static final class Tee extends FilterOutputStream {
+        final SpillBuffer copy;
+        boolean broken;
+
+        Tee(OutputStream out, SpillBuffer copy) {
+            super(out);
+            this.copy = copy;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (broken) return;
+            try {
+                copy.write(b, off, len);
+            } catch (IOException e) {
+                broken = true;
+            }
+        }
+    }
+
+    // The leader's finished result, one reference per follower; the scratch file goes with the last one
+    private static final class Shared {
+        final byte[] bytes;
+        final Path file;
+        final MediaType contentType;
+        final String filename;
+        final Map<String, String> headers;
+        final AtomicInteger references;
+
+        Shared(SpillBuffer buffer, PdfOutput output, int references) {
+            this.bytes = buffer.bytes();
+            this.file = buffer.file();
+            this.contentType = output.contentType();
+            this.filename = output.filename();
+            this.headers = new LinkedHashMap<>(output.headers());
+            // The leader's timings describe its run, not the followers' requests
+            this.headers.remove("Server-Timing");
+            this.references = new AtomicInteger(references);
+        }
+
+        PdfOutput open() throws IOException {
+            PdfOutput output = bytes != null ? PdfOutput.of(bytes) : PdfOutput.of(file);
+            output.as(contentType, filename).closing(this::release);
+            headers.forEach(output::header);
+            return output;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0 && file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException ignored) {
+                    // Scratch dir is cleaned on restart anyway
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.pdfbackend;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// PDFMergerUtility clones every input on its own, so 20 chapters set in the same fonts (with the
+// same logo) come out with 20 copies of each font program and image. This shares them again:
+//  - walk everything the pages' resources reach (fonts, font files, images, forms, ICC profiles,
+//    patterns...) plus the annotations' appearance streams
+//  - bottom-up, compare each stream with the ones of the same encoded length: by a hash of its raw
+//    bytes plus its dictionary, with the streams that points to already swapped for their kept copy
+//    (so two images are only equal if their soft masks are too). A stream no other one has the
+//    length of is never read.
+//  - point every reference to a duplicate at the first copy found
+// The duplicates aren't referenced anymore, so the writer never sees them.
+final class ResourceDeduplicator {
+
+    // How many streams were dropped, and their encoded size
+    record Savings(int streams, long bytes) {
+    }
+
+    private final Map<COSStream, COSStream> kept = new IdentityHashMap<>();
+    // Kept streams by /Length, and the hashes computed so far
+    private final Map<Long, List<COSStream>> byLength = new HashMap<>();
+    private final Map<COSStream, String> fingerprints = new IdentityHashMap<>();
+    private final Map<COSStream, Boolean> inProgress = new IdentityHashMap<>();
+    private final Map<COSDictionary, Boolean> visited = new IdentityHashMap<>();
+    // Stable ids for fingerprints; a stream that's part of a cycle keeps its own, so it's never shared
+    private final Map<COSStream, Integer> ids = new IdentityHashMap<>();
+    private final byte[] buffer = new byte[64 * 1024];
+    private int unique;
+    private int streams;
+    private long bytes;
+
+    private ResourceDeduplicator() {
+    }
+
+    static Savings dedupe(PDDocument doc) throws IOException {
+        ResourceDeduplicator deduplicator = new ResourceDeduplicator();
+        for (PDPage page : doc.getPages()) {
+            PDResources resources = page.getResources();
+            if (resources != null) deduplicator.walk(resources.getCOSObject());
+            COSBase annots = page.getCOSObject().getDictionaryObject(COSName.ANNOTS);
+            if (annots instanceof COSArray array) {
+                for (int i = 0; i < array.size(); i++) {
+                    // Only the appearances: the rest of an annotation points back at pages
+                    if (array.getObject(i) instanceof COSDictionary annot) {
+                        COSBase appearance = annot.getDictionaryObject(COSName.AP);
+                        if (appearance != null) deduplicator.walk(appearance);
+                    }
+                }
+            }
+        }
+        return new Savings(deduplicator.streams, deduplicator.bytes);
+    }
+
+    // The object to keep in place of base: the first copy of a stream, otherwise base itself
+    private COSBase walk(COSBase base) throws IOException {
+        if (base instanceof COSObject indirect) base = indirect.getObject();
+        if (base instanceof COSStream stream) return keep(stream);
+        if (base instanceof COSDictionary dict) {
+            if (visited.put(dict, Boolean.TRUE) == null) walkEntries(dict);
+        } else if (base instanceof COSArray array) {
+            for (int i = 0; i < array.size(); i++) {
+                COSBase value = array.getObject(i);
+                COSBase replacement = walk(value);
+                if (replacement != value) array.set(i, replacement);
+            }
+        }
+        return base;
+    }
+
+    private void walkEntries(COSDictionary dict) throws IOException {
+        // Copied first: the entries are swapped while going through them
+        for (Map.Entry<COSName, COSBase> entry : new ArrayList<>(dict.entrySet())) {
+            if (COSName.PARENT.equals(entry.getKey()) || COSName.P.equals(entry.getKey())) continue;
+            COSBase value = entry.getValue() instanceof COSObject indirect ? indirect.getObject() : entry.getValue();
+            COSBase replacement = walk(value);
+            if (replacement != value) dict.setItem(entry.getKey(), replacement);
+        }
+    }
+
+    private COSStream keep(COSStream stream) throws IOException {
+        COSStream known = kept.get(stream);
+        if (known != null) return known;
+        if (inProgress.containsKey(stream)) return stream;
+
+        inProgress.put(stream, Boolean.TRUE);
+        visited.put(stream, Boolean.TRUE);
+        walkEntries(stream);
+        inProgress.remove(stream);
+
+        COSStream first = findCopy(stream);
+        if (first == null) first = stream;
+        else {
+            streams++;
+            bytes += stream.getLength();
+        }
+        kept.put(stream, first);
+        return first;
+    }
+
+    // An earlier stream with the same content, or null (and then this one is kept)
+    private COSStream findCopy(COSStream stream) throws IOException {
+        List<COSStream> sameLength = byLength.computeIfAbsent(stream.getLength(), length -> new ArrayList<>(1));
+        if (!sameLength.isEmpty()) {
+            String key = fingerprintOf(stream);
+            for (COSStream candidate : sameLength) {
+                if (fingerprintOf(candidate).equals(key)) return candidate;
+            }
+        }
+        sameLength.add(stream);
+        return null;
+    }
+
+    private String fingerprintOf(COSStream stream) throws IOException {
+        String key = fingerprints.get(stream);
+        if (key == null) {
+            key = fingerprint(stream);
+            fingerprints.put(stream, key);
+        }
+        return key;
+    }
+
+    private String fingerprint(COSStream stream) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = stream.createRawInputStream()) {
+            int n;
+            while ((n = in.read(buffer)) > 0) digest.update(buffer, 0, n);
+        }
+        // /Length only describes the bytes already hashed, and may be direct in one copy and not the other
+        Map<String, Object> entries = new TreeMap<>();
+        for (Map.Entry<COSName, COSBase> entry : stream.entrySet()) {
+            if (!COSName.LENGTH.equals(entry.getKey())) entries.put(entry.getKey().getName(), valueOf(entry.getValue(), 0));
+        }
+        digest.update(entries.toString().getBytes(UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // Value equality for names, numbers, strings, arrays and plain dictionaries; streams by identity
+    // (they've been swapped for their kept copy by now)
+    private Object valueOf(COSBase base, int depth) {
+        if (base instanceof COSObject indirect) base = indirect.getObject();
+        if (base instanceof COSStream stream) {
+            return "stream#" + ids.computeIfAbsent(stream, s -> ids.size());
+        }
+        if (depth > 8) return "deep#" + unique++; // never equal to anything
+        if (base instanceof COSArray array) {
+            List<Object> values = new ArrayList<>(array.size());
+            for (int i = 0; i < array.size(); i++) values.add(valueOf(array.get(i), depth + 1));
+            return values;
+        }
+        if (base instanceof COSDictionary dict) {
+            Map<String, Object> values = new TreeMap<>();
+            for (Map.Entry<COSName, COSBase> entry : dict.entrySet()) {
+                if (COSName.PARENT.equals(entry.getKey()) || COSName.P.equals(entry.getKey())) continue;
+                values.put(entry.getKey().getName(), valueOf(entry.getValue(), depth + 1));
+            }
+            return values;
+        }
+        if (base instanceof COSString string) return HexFormat.of().formatHex(string.getBytes());
+        return String.valueOf(base); // COSName{..}, COSInt{..}, null...
+    }
+}
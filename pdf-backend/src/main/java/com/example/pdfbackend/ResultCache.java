@@ -0,0 +1,281 @@
+package com.example.pdfbackend;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Finished results by content (OperationRequest.contentKey).
+// The same PDF with the same settings (typically a client retrying after a dropped
+// connection) is answered from here instead of being parsed and rendered again.
+//  - results are copied while they stream out to the first caller, nothing waits for them
+//  - memory tier: LRU within a byte budget
+//  - optional disk tier: what falls out of memory moves to a scratch file, LRU within its own budget
+@Component
+public class ResultCache {
+
+    // What we keep of a PdfOutput: the bytes and how to serve them
+    private static final class Entry {
+        byte[] bytes;
+        Path file;
+        final long size;
+        final MediaType contentType;
+        final String filename;
+        final Map<String, String> headers;
+        // Hits still sending the file; it's only deleted once they're done (see release)
+        int users;
+        Path orphaned;
+
+        Entry(byte[] bytes, MediaType contentType, String filename, Map<String, String> headers) {
+            this.bytes = bytes;
+            this.size = bytes.length;
+            this.contentType = contentType;
+            this.filename = filename;
+            this.headers = headers;
+        }
+    }
+
+    private final PdfSpool spool;
+    private final boolean enabled;
+    private final long maxMemoryBytes;
+    private final long maxEntryBytes;
+    private final boolean diskEnabled;
+    private final long maxDiskBytes;
+
+    // access-ordered, so iteration starts at the least recently used result
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+    private long diskBytes;
+    private long hits;
+    private long misses;
+    private long stores;
+    private long tooLarge;
+    private long demotions;
+    private long evictions;
+
+    public ResultCache(
+            PdfSpool spool,
+            @Value("${pdf.cache.enabled:true}") boolean enabled,
+            @Value("${pdf.cache.max-memory:64MB}") DataSize maxMemory,
+            @Value("${pdf.cache.max-entry:16MB}") DataSize maxEntry,
+            @Value("${pdf.cache.disk.enabled:false}") boolean diskEnabled,
+            @Value("${pdf.cache.disk.max-size:1GB}") DataSize maxDisk
+    ) {
+        this.spool = spool;
+        this.enabled = enabled;
+        this.maxMemoryBytes = maxMemory.toBytes();
+        this.maxEntryBytes = maxEntry.toBytes();
+        this.diskEnabled = diskEnabled;
+        this.maxDiskBytes = maxDisk.toBytes();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // The cached result, ready to send - or null on a miss
+    public PdfOutput get(String key) throws IOException {
+        if (!enabled || key == null) return null;
+        Entry entry;
+        byte[] bytes;
+        Path file;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null || (entry.file != null && !Files.exists(entry.file))) {
+                if (entry != null) discard(entries.remove(key));
+                misses++;
+                return null;
+            }
+            hits++;
+            // Eviction may drop or delete them as soon as we let go of the lock
+            bytes = entry.bytes;
+            file = entry.file;
+            if (file != null) entry.users++;
+        }
+
+        PdfOutput output;
+        if (bytes != null) {
+            output = PdfOutput.of(bytes);
+        } else {
+            try {
+                output = PdfOutput.of(file);
+            } catch (IOException e) {
+                release(entry);
+                throw e;
+            }
+            output.closing(() -> release(entry));
+        }
+        output.as(entry.contentType, entry.filename);
+        entry.headers.forEach(output::header);
+        return output.header("X-Cache", "HIT");
+    }
+
+    // Copies the output into the cache as it's being written. Results that fail half way
+    // or turn out bigger than max-entry are dropped.
+    public PdfOutput capture(String key, PdfOutput output) {
+        if (!enabled || key == null) return output;
+        MediaType contentType = output.contentType();
+        String filename = output.filename();
+        Map<String, String> headers = new LinkedHashMap<>(output.headers());
+        // Timings describe this run, not the hits served later
+        headers.remove("Server-Timing");
+        long expected = output.contentLength();
+
+        output.header("X-Cache", "MISS");
+        if (expected > maxEntryBytes) {
+            synchronized (this) {
+                tooLarge++;
+            }
+            return output;
+        }
+        return output.wrapBody(body -> out -> {
+            Capture copy = new Capture(out, expected);
+            body.writeTo(copy);
+            if (copy.buffer != null) {
+                put(key, new Entry(copy.buffer.toByteArray(), contentType, filename, headers));
+            } else {
+                synchronized (this) {
+                    tooLarge++;
+                }
+            }
+        });
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("entries", entries.size());
+        stats.put("memoryBytes", memoryBytes);
+        stats.put("maxMemoryBytes", maxMemoryBytes);
+        stats.put("diskBytes", diskBytes);
+        stats.put("maxDiskBytes", diskEnabled ? maxDiskBytes : 0);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("stores", stores);
+        stats.put("tooLarge", tooLarge);
+        stats.put("demotions", demotions);
+        stats.put("evictions", evictions);
+        return stats;
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        discard(entries.put(key, entry));
+        memoryBytes += entry.size;
+        stores++;
+        evictOverBudget();
+    }
+
+    // Least recently used first: out of memory (onto disk, if there's a disk tier), then off disk
+    private void evictOverBudget() {
+        List<String> dropped = new ArrayList<>();
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (memoryBytes > maxMemoryBytes && it.hasNext()) {
+            Map.Entry<String, Entry> lru = it.next();
+            Entry entry = lru.getValue();
+            if (entry.bytes == null) continue;
+            if (!diskEnabled || !demote(entry)) dropped.add(lru.getKey());
+            memoryBytes -= entry.size;
+        }
+        for (String key : dropped) {
+            Entry entry = entries.remove(key);
+            entry.bytes = null;
+            evictions++;
+        }
+
+        it = entries.entrySet().iterator();
+        while (diskBytes > maxDiskBytes && it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (entry.file == null) continue;
+            it.remove();
+            discard(entry);
+            evictions++;
+        }
+    }
+
+    // Runs under the lock: a few MB at most (max-entry), and only when memory is full
+    private boolean demote(Entry entry) {
+        Path file = null;
+        try {
+            file = spool.newScratchFile("cache-", ".bin");
+            Files.write(file, entry.bytes);
+        } catch (IOException e) {
+            deleteQuietly(file);
+            return false;
+        }
+        entry.file = file;
+        entry.bytes = null;
+        diskBytes += entry.size;
+        demotions++;
+        return true;
+    }
+
+    private void discard(Entry entry) {
+        if (entry == null) return;
+        if (entry.bytes != null) memoryBytes -= entry.size;
+        if (entry.file != null) {
+            diskBytes -= entry.size;
+            if (entry.users > 0) entry.orphaned = entry.file;
+            else deleteQuietly(entry.file);
+        }
+        entry.bytes = null;
+        entry.file = null;
+    }
+
+    // A hit is done with the entry's file: delete it if the entry was dropped in the meantime
+    private synchronized void release(Entry entry) {
+        if (--entry.users == 0 && entry.orphaned != null) {
+            deleteQuietly(entry.orphaned);
+            entry.orphaned = null;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) return;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // Scratch dir is cleaned on restart anyway
+        }
+    }
+
+    // Passes everything through and keeps a copy, until the copy would pass max-entry
+    private final class Capture extends OutputStream {
+        private final OutputStream out;
+        private ByteArrayOutputStream buffer;
+
+        Capture(OutputStream out, long expected) {
+            this.out = out;
+            this.buffer = new ByteArrayOutputStream(expected > 0 ? (int) expected : PdfOutput.BUFFER_SIZE);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (buffer != null) {
+                if (buffer.size() + len > maxEntryBytes) buffer = null;
+                else buffer.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.pdfbackend;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Where one request's time went, for the client (Server-Timing) and the access log.
+//   upload     request start until the handler had the multipart body (reading it off the network)
+//   spool      moving the uploads into our scratch files
+//   queue      waiting for admission (see AdmissionControl)
+//   parse, transform, serialize   as in PdfMetrics
+// plus the page count and the output size. Everything but serialize is known before the response
+// starts and goes out as a header; a result written on the fly only knows its serialize time and
+// size at the end, so those follow as a Server-Timing trailer (chunked responses, for clients that
+// read trailers) - and they're always in the access log.
+// Set up per request by AccessLogFilter; filled in from whichever thread does the work.
+final class ServerTiming {
+
+    private static final String ATTRIBUTE = ServerTiming.class.getName();
+
+    private final long start = System.nanoTime();
+    private final HttpServletResponse response;
+    // Stage -> nanos, in the order they happened
+    private final Map<String, Long> stages = new LinkedHashMap<>();
+    private long pages = -1;
+    private long outputBytes = -1;
+
+    private ServerTiming(HttpServletResponse response) {
+        this.response = response;
+    }
+
+    static ServerTiming begin(HttpServletRequest request, HttpServletResponse response) {
+        ServerTiming timing = new ServerTiming(response);
+        request.setAttribute(ATTRIBUTE, timing);
+        return timing;
+    }
+
+    // The current request's, or null (no request on this thread, or not set up)
+    static ServerTiming current() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        return attributes == null ? null : (ServerTiming) attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+    }
+
+    long elapsedNanos() {
+        return System.nanoTime() - start;
+    }
+
+    synchronized void record(String stage, long nanos) {
+        stages.merge(stage, nanos, Long::sum);
+    }
+
+    synchronized void pages(long pages) {
+        this.pages = pages;
+    }
+
+    synchronized void outputBytes(long bytes) {
+        this.outputBytes = bytes;
+    }
+
+    synchronized boolean isEmpty() {
+        return stages.isEmpty();
+    }
+
+    // The header, with the operation's own breakdown (e.g. compress: scan, images) after ours.
+    // Its entries that we already have are left out.
+    synchronized String header(String operationTimings) {
+        StringBuilder sb = new StringBuilder();
+        stages.forEach((stage, nanos) -> append(sb, stage, nanos));
+        if (pages >= 0) append(sb, "pages", pages);
+        if (outputBytes >= 0) append(sb, "size", outputBytes);
+        if (operationTimings != null) {
+            for (String entry : operationTimings.split(",")) {
+                String name = entry.strip().split(";", 2)[0];
+                if (!name.isEmpty() && !stages.containsKey(name)) sb.append(", ").append(entry.strip());
+            }
+        }
+        return sb.toString();
+    }
+
+    // Sends the rest once the body has been written. Only call before the response is committed.
+    void sendTrailer() {
+        try {
+            response.setTrailerFields(() -> Map.of("Server-Timing", trailer()));
+        } catch (IllegalStateException e) {
+            // HTTP/1.0, or not chunked: there's no trailer to send
+        }
+    }
+
+    private synchronized String trailer() {
+        StringBuilder sb = new StringBuilder();
+        Long serialize = stages.get("serialize");
+        if (serialize != null) append(sb, "serialize", serialize);
+        if (outputBytes >= 0) append(sb, "size", outputBytes);
+        append(sb, "total", elapsedNanos());
+        return sb.toString();
+    }
+
+    // The whole breakdown, for the access log once the response is done
+    synchronized String summary() {
+        StringBuilder sb = new StringBuilder(header(null));
+        append(sb, "total", elapsedNanos());
+        return sb.toString();
+    }
+
+    // Durations in ms; pages and size as a description, since they aren't durations
+    private static void append(StringBuilder sb, String name, long value) {
+        if (!sb.isEmpty()) sb.append(", ");
+        sb.append(name);
+        switch (name) {
+            case "pages", "size" -> sb.append(";desc=").append(value);
+            default -> sb.append(";dur=").append(String.format(Locale.ROOT, "%.1f", value / 1_000_000.0));
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.pdfbackend;
+
+// Thrown when we're out of capacity; turned into 503 + Retry-After by GlobalExceptionHandler
+public class ServiceBusyException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSeconds;
+
+    public ServiceBusyException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.pdfbackend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Buffers in memory up to a threshold, then moves everything to a scratch file.
+// Used wherever a finished result has to be kept around (jobs, shared in-flight results).
+class SpillBuffer extends OutputStream {
+
+    private final PdfSpool spool;
+    private final long threshold;
+    private final String prefix;
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    private OutputStream disk;
+    private Path file;
+    private long size;
+
+    SpillBuffer(PdfSpool spool, long threshold, String prefix) {
+        this.spool = spool;
+        this.threshold = threshold;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (disk == null && size + len > threshold) {
+            file = spool.newScratchFile(prefix, ".bin");
+            disk = Files.newOutputStream(file);
+            memory.writeTo(disk);
+            memory = null;
+        }
+        if (disk != null) disk.write(b, off, len);
+        else memory.write(b, off, len);
+        size += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (disk != null) disk.close();
+    }
+
+    // null once it has spilled
+    byte[] bytes() {
+        return memory == null ? null : memory.toByteArray();
+    }
+
+    // null while it's still in memory
+    Path file() {
+        return file;
+    }
+
+    long size() {
+        return size;
+    }
+
+    void discard() throws IOException {
+        close();
+        if (file != null) Files.deleteIfExists(file);
+    }
+}
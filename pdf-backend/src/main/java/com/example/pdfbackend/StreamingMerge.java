@@ -0,0 +1,517 @@
+package com.example.pdfbackend;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSObjectKey;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdfwriter.COSWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentCatalog;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDNamedDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageDestination;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// A merge that writes the result while it reads the sources, instead of building it in a PDDocument.
+// Each source is parsed, and everything its pages use (content, resources, annotations) is
+// written out as numbered objects, page by page, before the next source is opened. All that's
+// kept across sources is one offset per object written and one number per page - the xref and
+// the page tree, written at the end along with the bookmarks.
+//
+// Kept: pages (inherited resources/boxes/rotation moved onto them), annotations and links,
+// bookmarks - named destinations in links and bookmarks are looked up and written out explicitly.
+// Not kept: form fields, tagged structure, page labels, document-level JavaScript and metadata.
+// That's why PdfMerger only uses this for big merges of sources without the first three.
+//
+// With dedupe on, a stream the pages use (font file, image, form, ICC profile...) is compared by
+// a hash of its raw bytes and dictionary with everything written so far, and a duplicate just
+// points at the earlier copy - the same result as ResourceDeduplicator, but decided up front.
+final class StreamingMerge {
+
+    private static final byte[] HEADER = "%PDF-1.7\n%âãÏÓ\n".getBytes(ISO_8859_1);
+    private static final int PAGES_ROOT = 1;
+    // In the number map: references to these become null (the source's catalog, dangling refs)
+    private static final int NULL = -1;
+    private static final COSName GOTO = COSName.getPDFName("GoTo");
+
+    // An object that has its number, but isn't written yet
+    private record Pending(int number, COSBase object) {
+    }
+
+    // A top-level bookmark: its entries are written once the next one is known (/Prev, /Next)
+    private record TopBookmark(int number, byte[] entries) {
+    }
+
+    // First 128 bits of a stream's SHA-256
+    private record Digest(long high, long low) {
+    }
+
+    private final Position out;
+    private final boolean dedupe;
+    private final byte[] buffer = new byte[64 * 1024];
+
+    // Across sources: byte offset of every object (index = number), and the pages in order
+    private long[] offsets = new long[1024];
+    private int nextNumber = PAGES_ROOT + 1;
+    private int[] pages = new int[256];
+    private int pageCount;
+    private final List<TopBookmark> bookmarks = new ArrayList<>();
+    private int outlineRoot;
+    private final Map<Digest, Integer> writtenStreams = new HashMap<>();
+    private int dedupedStreams;
+    private long dedupedBytes;
+    private long uniques;
+
+    // Per source
+    private final Map<COSObjectKey, Integer> numbers = new HashMap<>();
+    private final Map<COSDictionary, Integer> pageNumbers = new IdentityHashMap<>();
+    private final Deque<Pending> pending = new ArrayDeque<>();
+    private final Set<COSObjectKey> hashing = new HashSet<>();
+    private PDDocumentCatalog catalog;
+
+    private StreamingMerge(OutputStream out, boolean dedupe) {
+        this.out = new Position(out);
+        this.dedupe = dedupe;
+    }
+
+    // What dedupe saved (all zero without it)
+    static ResourceDeduplicator.Savings write(List<PdfSource> sources, OutputStream out, boolean dedupe) throws IOException {
+        StreamingMerge merge = new StreamingMerge(out, dedupe);
+        merge.out.write(HEADER);
+        for (PdfSource source : sources) {
+            try (PDDocument src = source.load()) {
+                merge.append(src);
+            }
+        }
+        merge.finish();
+        return new ResourceDeduplicator.Savings(merge.dedupedStreams, merge.dedupedBytes);
+    }
+
+    // ===== ONE SOURCE =====
+
+    private void append(PDDocument src) throws IOException {
+        numbers.clear();
+        pageNumbers.clear();
+        catalog = src.getDocumentCatalog();
+        COSDictionary root = catalog.getCOSObject();
+
+        // Page numbers come first, so links to later pages can be written before those pages are
+        List<COSDictionary> sourcePages = new ArrayList<>();
+        numberPageTree(root.getItem(COSName.PAGES), sourcePages, new HashSet<>());
+        // The catalog is only reachable through the trailer; anything else pointing at it gets null
+        if (src.getDocument().getTrailer().getItem(COSName.ROOT) instanceof COSObject ref) {
+            numbers.put(new COSObjectKey(ref), NULL);
+        }
+
+        int first = pageCount - sourcePages.size();
+        for (int i = 0; i < sourcePages.size(); i++) {
+            writePage(pages[first + i], sourcePages.get(i));
+            drain();
+        }
+        appendBookmarks(root);
+    }
+
+    // Depth-first in page order. Page tree nodes all become our single root.
+    private void numberPageTree(COSBase node, List<COSDictionary> sourcePages, Set<COSDictionary> seen) {
+        COSBase resolved = node instanceof COSObject ref ? ref.getObject() : node;
+        if (!(resolved instanceof COSDictionary dict) || !seen.add(dict)) return;
+        if (dict.containsKey(COSName.KIDS)) {
+            if (node instanceof COSObject ref) numbers.put(new COSObjectKey(ref), PAGES_ROOT);
+            if (dict.getDictionaryObject(COSName.KIDS) instanceof COSArray kids) {
+                for (int i = 0; i < kids.size(); i++) numberPageTree(kids.get(i), sourcePages, seen);
+            }
+            return;
+        }
+        int number = reserve();
+        if (node instanceof COSObject ref) numbers.put(new COSObjectKey(ref), number);
+        pageNumbers.put(dict, number);
+        sourcePages.add(dict);
+        if (pageCount == pages.length) pages = Arrays.copyOf(pages, pageCount * 2);
+        pages[pageCount++] = number;
+    }
+
+    private void writePage(int number, COSDictionary page) throws IOException {
+        begin(number);
+        out.write("<<");
+        for (Map.Entry<COSName, COSBase> entry : page.entrySet()) {
+            if (COSName.PARENT.equals(entry.getKey())) continue;
+            // Page content is hardly ever shared, so it isn't worth hashing
+            writeEntry(entry.getKey(), entry.getValue(), page, out, !COSName.CONTENTS.equals(entry.getKey()));
+        }
+        out.write("/Parent " + PAGES_ROOT + " 0 R");
+        // Inherited from the source's page tree, which isn't copied
+        for (COSName inheritable : List.of(COSName.RESOURCES, COSName.MEDIA_BOX, COSName.CROP_BOX, COSName.ROTATE)) {
+            if (page.containsKey(inheritable)) continue;
+            COSBase inherited = inherited(page, inheritable);
+            if (inherited != null) writeEntry(inheritable, inherited, page, out, false);
+        }
+        out.write(">>");
+        end();
+    }
+
+    private static COSBase inherited(COSDictionary page, COSName key) {
+        Set<COSDictionary> seen = new HashSet<>();
+        COSDictionary node = page.getCOSDictionary(COSName.PARENT);
+        while (node != null && seen.add(node)) {
+            COSBase value = node.getItem(key);
+            if (value != null) return value;
+            node = node.getCOSDictionary(COSName.PARENT);
+        }
+        return null;
+    }
+
+    // Everything the objects written so far point to, until nothing new turns up
+    private void drain() throws IOException {
+        Pending next;
+        while ((next = pending.pollFirst()) != null) writeObject(next.number(), next.object());
+    }
+
+    // ===== BOOKMARKS =====
+
+    // Top-level bookmarks get linked to the other sources' at the end; everything below them is
+    // written now, like any other object
+    private void appendBookmarks(COSDictionary root) throws IOException {
+        COSBase outlinesRef = root.getItem(COSName.OUTLINES);
+        if (!(root.getDictionaryObject(COSName.OUTLINES) instanceof COSDictionary outlines)) return;
+        if (outlineRoot == 0) outlineRoot = reserve();
+        if (outlinesRef instanceof COSObject ref) numbers.put(new COSObjectKey(ref), outlineRoot);
+
+        List<COSBase> items = new ArrayList<>();
+        Set<COSDictionary> seen = new HashSet<>();
+        COSBase item = outlines.getItem(COSName.FIRST);
+        while (item != null) {
+            COSBase resolved = item instanceof COSObject ref ? ref.getObject() : item;
+            if (!(resolved instanceof COSDictionary dict) || !seen.add(dict)) break;
+            items.add(item);
+            if (item instanceof COSObject ref) numbers.put(new COSObjectKey(ref), reserve());
+            item = dict.getItem(COSName.NEXT);
+        }
+        for (COSBase top : items) {
+            COSDictionary dict = (COSDictionary) (top instanceof COSObject ref ? ref.getObject() : top);
+            int number = top instanceof COSObject ref ? numbers.get(new COSObjectKey(ref)) : reserve();
+            ByteArrayOutputStream entries = new ByteArrayOutputStream();
+            for (Map.Entry<COSName, COSBase> entry : dict.entrySet()) {
+                COSName key = entry.getKey();
+                if (COSName.PARENT.equals(key) || COSName.PREV.equals(key) || COSName.NEXT.equals(key)) continue;
+                writeEntry(key, entry.getValue(), dict, entries, false);
+            }
+            bookmarks.add(new TopBookmark(number, entries.toByteArray()));
+        }
+        drain();
+    }
+
+    // ===== END OF FILE =====
+
+    private void finish() throws IOException {
+        begin(PAGES_ROOT);
+        out.write("<</Type /Pages /Count " + pageCount + " /Kids [");
+        for (int i = 0; i < pageCount; i++) out.write((i == 0 ? "" : " ") + pages[i] + " 0 R");
+        out.write("]>>");
+        end();
+
+        if (outlineRoot != 0) {
+            for (int i = 0; i < bookmarks.size(); i++) {
+                TopBookmark bookmark = bookmarks.get(i);
+                begin(bookmark.number());
+                out.write("<<");
+                out.write(bookmark.entries());
+                out.write("/Parent " + outlineRoot + " 0 R");
+                if (i > 0) out.write("/Prev " + bookmarks.get(i - 1).number() + " 0 R");
+                if (i < bookmarks.size() - 1) out.write("/Next " + bookmarks.get(i + 1).number() + " 0 R");
+                out.write(">>");
+                end();
+            }
+            begin(outlineRoot);
+            out.write("<</Type /Outlines /Count " + bookmarks.size());
+            if (!bookmarks.isEmpty()) {
+                out.write("/First " + bookmarks.get(0).number() + " 0 R/Last "
+                        + bookmarks.get(bookmarks.size() - 1).number() + " 0 R");
+            }
+            out.write(">>");
+            end();
+        }
+
+        int catalogNumber = reserve();
+        begin(catalogNumber);
+        out.write("<</Type /Catalog /Pages " + PAGES_ROOT + " 0 R");
+        if (outlineRoot != 0) out.write("/Outlines " + outlineRoot + " 0 R");
+        out.write(">>");
+        end();
+
+        long xref = out.position();
+        out.write("xref\n0 " + nextNumber + "\n0000000000 65535 f\r\n");
+        for (int number = 1; number < nextNumber; number++) {
+            // Exactly 20 bytes each
+            String offset = Long.toString(offsets[number]);
+            out.write("0000000000".substring(offset.length()) + offset + " 00000 n\r\n");
+        }
+        out.write("trailer\n<</Size " + nextNumber + " /Root " + catalogNumber + " 0 R>>\nstartxref\n" + xref + "\n%%EOF\n");
+        out.flush();
+    }
+
+    // ===== OBJECTS =====
+
+    private int reserve() {
+        return nextNumber++;
+    }
+
+    // The number an indirect reference gets in the output (or NULL)
+    private int numberOf(COSObject ref, boolean mayDedupe) throws IOException {
+        COSObjectKey key = new COSObjectKey(ref);
+        Integer known = numbers.get(key);
+        if (known != null) return known;
+        COSBase object = ref.getObject();
+        if (object == null) {
+            numbers.put(key, NULL);
+            return NULL;
+        }
+        if (object instanceof COSDictionary dict && pageNumbers.containsKey(dict)) return pageNumbers.get(dict);
+
+        if (dedupe && mayDedupe && object instanceof COSStream stream && hashing.add(key)) {
+            Digest digest;
+            try {
+                digest = digest(stream);
+            } finally {
+                hashing.remove(key);
+            }
+            // A cycle through this stream may have numbered it in the meantime
+            known = numbers.get(key);
+            if (known != null) return known;
+            Integer earlier = writtenStreams.get(digest);
+            if (earlier != null) {
+                numbers.put(key, earlier);
+                dedupedStreams++;
+                dedupedBytes += stream.getLength();
+                return earlier;
+            }
+            int number = reserve();
+            numbers.put(key, number);
+            writtenStreams.put(digest, number);
+            pending.addLast(new Pending(number, stream));
+            return number;
+        }
+
+        int number = reserve();
+        numbers.put(key, number);
+        pending.addLast(new Pending(number, object));
+        return number;
+    }
+
+    private void writeObject(int number, COSBase object) throws IOException {
+        if (object instanceof COSStream stream) {
+            writeStream(number, stream);
+            return;
+        }
+        begin(number);
+        writeValue(object, out, true);
+        end();
+    }
+
+    // The length goes in an object of its own, written after the data: it's only known once it's copied
+    private void writeStream(int number, COSStream stream) throws IOException {
+        int lengthNumber = reserve();
+        begin(number);
+        out.write("<<");
+        for (Map.Entry<COSName, COSBase> entry : stream.entrySet()) {
+            if (COSName.LENGTH.equals(entry.getKey())) continue;
+            writeEntry(entry.getKey(), entry.getValue(), stream, out, true);
+        }
+        out.write("/Length " + lengthNumber + " 0 R>>\nstream\r\n");
+        long start = out.position();
+        try (InputStream in = stream.createRawInputStream()) {
+            int n;
+            while ((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+        }
+        long length = out.position() - start;
+        out.write("\r\nendstream\nendobj\n");
+
+        begin(lengthNumber);
+        out.write(Long.toString(length));
+        end();
+    }
+
+    private void begin(int number) throws IOException {
+        if (number >= offsets.length) offsets = Arrays.copyOf(offsets, Math.max(number + 1, offsets.length * 2));
+        offsets[number] = out.position();
+        out.write(number + " 0 obj\n");
+    }
+
+    private void end() throws IOException {
+        out.write("\nendobj\n");
+    }
+
+    // ===== VALUES =====
+
+    private void writeEntry(COSName key, COSBase value, COSDictionary owner, OutputStream to, boolean mayDedupe) throws IOException {
+        key.writePDF(to);
+        to.write(' ');
+        writeValue(explicitDestination(key, value, owner), to, mayDedupe);
+        to.write(' ');
+    }
+
+    // Named destinations point into the source's name tree, which isn't copied: look them up now
+    private COSBase explicitDestination(COSName key, COSBase value, COSDictionary owner) {
+        boolean named = value instanceof COSName || value instanceof COSString;
+        boolean destination = COSName.DEST.equals(key)
+                || (COSName.D.equals(key) && GOTO.equals(owner.getCOSName(COSName.S)));
+        if (!named || !destination) return value;
+        try {
+            PDPageDestination explicit = catalog.findNamedDestinationPage(value instanceof COSName name
+                    ? new PDNamedDestination(name) : new PDNamedDestination((COSString) value));
+            return explicit != null ? explicit.getCOSObject() : value;
+        } catch (IOException | RuntimeException e) {
+            return value; // left as it was: a dead link, not a failed merge
+        }
+    }
+
+    private void writeValue(COSBase value, OutputStream to, boolean mayDedupe) throws IOException {
+        if (value instanceof COSObject ref) {
+            int number = numberOf(ref, mayDedupe);
+            to.write((number == NULL ? "null" : number + " 0 R").getBytes(ISO_8859_1));
+        } else if (value instanceof COSStream stream) {
+            // Streams are always indirect; a direct one only turns up through a resolved destination
+            int number = reserve();
+            pending.addLast(new Pending(number, stream));
+            to.write((number + " 0 R").getBytes(ISO_8859_1));
+        } else if (value instanceof COSDictionary dict) {
+            Integer page = pageNumbers.get(dict);
+            if (page != null) {
+                to.write((page + " 0 R").getBytes(ISO_8859_1));
+                return;
+            }
+            to.write('<');
+            to.write('<');
+            for (Map.Entry<COSName, COSBase> entry : dict.entrySet()) {
+                writeEntry(entry.getKey(), entry.getValue(), dict, to, mayDedupe);
+            }
+            to.write('>');
+            to.write('>');
+        } else if (value instanceof COSArray array) {
+            to.write('[');
+            for (int i = 0; i < array.size(); i++) {
+                if (i > 0) to.write(' ');
+                writeValue(array.get(i), to, mayDedupe);
+            }
+            to.write(']');
+        } else if (value instanceof COSString string) {
+            COSWriter.writeString(string, to);
+        } else if (value instanceof COSName name) {
+            name.writePDF(to);
+        } else if (value instanceof COSInteger number) {
+            number.writePDF(to);
+        } else if (value instanceof COSFloat number) {
+            number.writePDF(to);
+        } else if (value instanceof COSBoolean bool) {
+            bool.writePDF(to);
+        } else {
+            COSNull.NULL.writePDF(to);
+        }
+    }
+
+    // ===== DEDUPE =====
+
+    private Digest digest(COSStream stream) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = stream.createRawInputStream()) {
+            int n;
+            while ((n = in.read(buffer)) > 0) digest.update(buffer, 0, n);
+        }
+        Map<String, Object> entries = new TreeMap<>();
+        for (Map.Entry<COSName, COSBase> entry : stream.entrySet()) {
+            if (!COSName.LENGTH.equals(entry.getKey())) entries.put(entry.getKey().getName(), valueOf(entry.getValue(), 0));
+        }
+        digest.update(entries.toString().getBytes(UTF_8));
+        ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+        return new Digest(hash.getLong(), hash.getLong());
+    }
+
+    // Like ResourceDeduplicator.valueOf, except that streams it points to are identified by the
+    // number they're written under - which dedupes them first (a soft mask, an ICC profile...)
+    private Object valueOf(COSBase base, int depth) throws IOException {
+        if (base instanceof COSObject ref) {
+            if (ref.getObject() instanceof COSStream) return "stream#" + numberOf(ref, true);
+            base = ref.getObject();
+        }
+        if (base instanceof COSDictionary dict && pageNumbers.containsKey(dict)) return "page#" + pageNumbers.get(dict);
+        if (base instanceof COSStream || depth > 8) return "unique#" + uniques++; // never equal to anything
+        if (base instanceof COSArray array) {
+            List<Object> values = new ArrayList<>(array.size());
+            for (int i = 0; i < array.size(); i++) values.add(valueOf(array.get(i), depth + 1));
+            return values;
+        }
+        if (base instanceof COSDictionary dict) {
+            Map<String, Object> values = new TreeMap<>();
+            for (Map.Entry<COSName, COSBase> entry : dict.entrySet()) {
+                if (COSName.PARENT.equals(entry.getKey()) || COSName.P.equals(entry.getKey())) continue;
+                values.put(entry.getKey().getName(), valueOf(entry.getValue(), depth + 1));
+            }
+            return values;
+        }
+        if (base instanceof COSString string) return HexFormat.of().formatHex(string.getBytes());
+        return String.valueOf(base);
+    }
+
+    // Counts what's been written, for the xref
+    private static final class Position extends FilterOutputStream {
+        private long position;
+
+        Position(OutputStream out) {
+            super(out);
+        }
+
+        long position() {
+            return position;
+        }
+
+        void write(String text) throws IOException {
+            write(text.getBytes(ISO_8859_1));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            position += len;
+        }
+    }
+}
@@ -14,7 +14,11 @@ public class WebConfig implements WebMvcConfigurer {
                 .allowedOriginPatterns("*") // Allows any frontend URL (Render, Firebase, localhost)
                 .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
                 .allowedHeaders("*")
-                .exposedHeaders("Content-Disposition") // Crucial for Flutter to read the downloaded filename
+                .exposedHeaders("Content-Disposition", // Crucial for Flutter to read the downloaded filename
+                        "X-Original-Size", "X-Compressed-Size", "X-Size-Reduction", "X-Compression-Images",
+                        "X-Split-Parts", "X-Cache", "X-Coalesced", "X-Dedup-Streams", "X-Dedup-Bytes-Saved",
+                        "X-Merge-Streamed",
+                        "Server-Timing")
                 .allowCredentials(false);
     }
 }
\ No newline at end of file
@@ -0,0 +1,116 @@
+package com.example.pdfbackend;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Upload once, operate many times: POST /documents returns an id, and every operation
+// (/documents/{id}/convert, /documents/{id}/delete, ...) then runs on the stored upload.
+// Same params as the DocxController endpoints, sent as form fields or query params - no file.
+// Merge takes the other documents as "with" (comma-separated ids, in order); an image watermark
+// takes its image the same way, uploaded to /documents first.
+@CrossOrigin(origins = "*")
+@RestController
+@RequestMapping("/documents")
+public class WorkspaceController {
+
+    private final DocumentWorkspace workspace;
+    private final OperationDispatcher dispatcher;
+    private final RateLimiter rateLimiter;
+
+    public WorkspaceController(DocumentWorkspace workspace, OperationDispatcher dispatcher, RateLimiter rateLimiter) {
+        this.workspace = workspace;
+        this.dispatcher = dispatcher;
+        this.rateLimiter = rateLimiter;
+    }
+
+    // ===== UPLOAD =====
+    @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<Map<String, Object>> upload(
+            HttpServletRequest request,
+            @RequestPart("file") MultipartFile file
+    ) throws Exception {
+
+        if (!rateLimiter.allowRequest(request, "upload", file)) {
+            return ResponseEntity.status(429).body(Map.of("message", "Too many requests. Please try again in a minute."));
+        }
+        DocxController.validateFile(file);
+
+        DocumentWorkspace.Document doc = workspace.add(file);
+        return ResponseEntity.status(HttpStatus.CREATED).body(describe(doc));
+    }
+
+    // ===== RETENTION STATS (for sizing pdf.workspace.*) =====
+    @GetMapping("/stats")
+    public Map<String, Object> stats() {
+        return workspace.stats();
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<Map<String, Object>> info(@PathVariable("id") String id) {
+        DocumentWorkspace.Document doc = workspace.get(id);
+        if (doc == null) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(describe(doc));
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> delete(@PathVariable("id") String id) {
+        return workspace.remove(id) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    // ===== OPERATE =====
+    // Only the operation's own cost is charged: there's no upload to pay for
+    @PostMapping("/{id}/{op}")
+    public ResponseEntity<StreamingResponseBody> operate(
+            HttpServletRequest request,
+            @PathVariable("id") String id,
+            @PathVariable("op") String op,
+            @RequestParam Map<String, String> params
+    ) throws Exception {
+
+        PdfOperation operation = PdfOperation.fromPath(op);
+        if (!rateLimiter.allowRequest(request, operation.path())) return PdfResponses.tooManyRequests();
+
+        Map<String, String> operationParams = new HashMap<>(params);
+        List<String> ids = new ArrayList<>();
+        ids.add(id);
+        String with = operationParams.remove("with");
+        if (with != null) {
+            for (String other : with.split(",")) {
+                if (!other.isBlank()) ids.add(other.trim());
+            }
+        }
+
+        List<PdfSource> sources = workspace.acquire(ids);
+        if (sources == null) return ResponseEntity.notFound().build();
+
+        PdfOutput output;
+        try {
+            output = dispatcher.execute(new OperationRequest(operation, sources, Map.copyOf(operationParams)));
+        } catch (Exception e) {
+            workspace.release(sources);
+            throw e;
+        }
+        return PdfResponses.build(output.closing(() -> workspace.release(sources)), operation.filename());
+    }
+
+    private Map<String, Object> describe(DocumentWorkspace.Document doc) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("id", doc.id());
+        body.put("filename", doc.filename());
+        body.put("size", doc.size());
+        body.put("ready", workspace.isWarm(doc));
+        body.put("expiresAfterIdleSeconds", workspace.ttlSeconds());
+        return body;
+    }
+}
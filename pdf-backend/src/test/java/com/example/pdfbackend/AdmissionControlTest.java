@@ -0,0 +1,157 @@
+package com.example.pdfbackend;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AdmissionControlTest {
+
+    // DELETE costs 1.6 bytes per input byte
+    private static final PdfOperation OP = PdfOperation.DELETE;
+
+    private final ExecutorService waiters = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void stopWaiters() {
+        waiters.shutdownNow();
+    }
+
+    private static AdmissionControl admission(long budget, int maxQueue, Duration maxWait) {
+        return new AdmissionControl(DataSize.ofBytes(budget), maxQueue, maxWait);
+    }
+
+    private CompletableFuture<AdmissionControl.Permit> admitLater(AdmissionControl admission, long inputBytes) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return admission.admit(OP, inputBytes);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }, waiters);
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition within 5s").isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void estimateScalesWithInputAndIsCappedAtTheBudget() {
+        AdmissionControl admission = admission(1000, 4, Duration.ofSeconds(1));
+        assertThat(admission.estimate(OP, 100)).isEqualTo(160);
+        assertThat(admission.estimate(OP, 0)).isEqualTo(1);
+        // Anything bigger than the budget still runs, alone
+        assertThat(admission.estimate(OP, 10_000)).isEqualTo(1000);
+    }
+
+    @Test
+    void permitsHoldBudgetUntilClosed() throws InterruptedException {
+        AdmissionControl admission = admission(1000, 4, Duration.ofSeconds(1));
+        AdmissionControl.Permit permit = admission.admit(OP, 100);
+        assertThat(admission.inUseBytes()).isEqualTo(160);
+        permit.close();
+        permit.close();
+        assertThat(admission.inUseBytes()).isZero();
+    }
+
+    @Test
+    void waitersAreAdmittedInArrivalOrder() throws Exception {
+        AdmissionControl admission = admission(100, 4, Duration.ofSeconds(10));
+        AdmissionControl.Permit running = admission.admit(OP, 50);
+
+        // Needs the whole budget: waits for the running one
+        CompletableFuture<AdmissionControl.Permit> big = admitLater(admission, 100);
+        awaitTrue(() -> admission.queued() == 1);
+        // Would fit next to the running one, but mustn't overtake the big one
+        CompletableFuture<AdmissionControl.Permit> small = admitLater(admission, 10);
+        awaitTrue(() -> admission.queued() == 2);
+        Thread.sleep(100);
+        assertThat(small).isNotDone();
+
+        running.close();
+        AdmissionControl.Permit bigPermit = big.get(5, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        assertThat(small).isNotDone();
+
+        bigPermit.close();
+        small.get(5, TimeUnit.SECONDS).close();
+        assertThat(admission.inUseBytes()).isZero();
+        assertThat(admission.queued()).isZero();
+    }
+
+    @Test
+    void waitingPastTheDeadlineIsRefused() throws InterruptedException {
+        AdmissionControl admission = admission(100, 4, Duration.ofMillis(200));
+        AdmissionControl.Permit running = admission.admit(OP, 50);
+
+        long start = System.nanoTime();
+        assertThatThrownBy(() -> admission.admit(OP, 50))
+                .isInstanceOf(ServiceBusyException.class)
+                .satisfies(e -> assertThat(((ServiceBusyException) e).getRetryAfterSeconds()).isEqualTo(1));
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(200));
+        // Nothing was taken by the one that gave up
+        assertThat(admission.queued()).isZero();
+        assertThat(admission.inUseBytes()).isEqualTo(80);
+        running.close();
+    }
+
+    @Test
+    void fullQueueIsRefusedStraightAway() throws Exception {
+        AdmissionControl admission = admission(100, 1, Duration.ofSeconds(10));
+        AdmissionControl.Permit running = admission.admit(OP, 50);
+        CompletableFuture<AdmissionControl.Permit> queued = admitLater(admission, 50);
+        awaitTrue(() -> admission.queued() == 1);
+
+        long start = System.nanoTime();
+        assertThatThrownBy(() -> admission.admit(OP, 50)).isInstanceOf(ServiceBusyException.class);
+        assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(1));
+
+        running.close();
+        queued.get(5, TimeUnit.SECONDS).close();
+    }
+
+    @Test
+    void tryAdmitNeverWaitsOrOvertakes() throws Exception {
+        AdmissionControl admission = admission(100, 4, Duration.ofSeconds(10));
+        AdmissionControl.Permit running = admission.admit(OP, 50);
+        assertThat(admission.tryAdmit(30)).isNull();
+
+        AdmissionControl.Permit fits = admission.tryAdmit(20);
+        assertThat(fits).isNotNull();
+        fits.close();
+
+        CompletableFuture<AdmissionControl.Permit> waiting = admitLater(admission, 100);
+        awaitTrue(() -> admission.queued() == 1);
+        // Room for it, but someone is already waiting
+        assertThat(admission.tryAdmit(10)).isNull();
+
+        running.close();
+        waiting.get(5, TimeUnit.SECONDS).close();
+    }
+
+    @Test
+    void chargesGoPastTheBudgetAndHoldBackNewWork() throws InterruptedException {
+        AdmissionControl admission = admission(100, 4, Duration.ofMillis(100));
+        AdmissionControl.Permit running = admission.admit(OP, 50);
+        AdmissionControl.Permit charge = admission.charge(200);
+        assertThat(admission.inUseBytes()).isEqualTo(280);
+        assertThatThrownBy(() -> admission.admit(OP, 1)).isInstanceOf(ServiceBusyException.class);
+
+        charge.close();
+        running.close();
+        assertThat(admission.inUseBytes()).isZero();
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.pdfbackend;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PageSelectionTest {
+
+    // 1-based, the way the expressions are written
+    private static int[] select(String expression, int pageCount) {
+        int[] pages = PageSelection.compile(expression, pageCount).pages().clone();
+        for (int i = 0; i < pages.length; i++) pages[i]++;
+        return pages;
+    }
+
+    @Test
+    void singlePagesAndRanges() {
+        assertThat(select("5", 10)).containsExactly(5);
+        assertThat(select("3-6", 10)).containsExactly(3, 4, 5, 6);
+        assertThat(select("6-3", 10)).containsExactly(6, 5, 4, 3);
+        assertThat(select("4-4", 10)).containsExactly(4);
+    }
+
+    @Test
+    void openRangesRunToTheEnds() {
+        assertThat(select("8-", 10)).containsExactly(8, 9, 10);
+        assertThat(select("-3", 10)).containsExactly(1, 2, 3);
+        assertThat(select("-", 3)).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    void lastAndEndMeanTheLastPage() {
+        assertThat(select("last", 7)).containsExactly(7);
+        assertThat(select("5-last", 7)).containsExactly(5, 6, 7);
+        assertThat(select("end-5", 7)).containsExactly(7, 6, 5);
+    }
+
+    @Test
+    void keywords() {
+        assertThat(select("all", 4)).containsExactly(1, 2, 3, 4);
+        assertThat(select("*", 3)).containsExactly(1, 2, 3);
+        assertThat(select("odd", 5)).containsExactly(1, 3, 5);
+        assertThat(select("even", 5)).containsExactly(2, 4);
+        assertThat(select("reverse", 4)).containsExactly(4, 3, 2, 1);
+    }
+
+    @Test
+    void stepsOnRangesOpenRangesAndKeywords() {
+        assertThat(select("1-10:3", 10)).containsExactly(1, 4, 7, 10);
+        assertThat(select("10-1:4", 10)).containsExactly(10, 6, 2);
+        assertThat(select("2-:4", 10)).containsExactly(2, 6, 10);
+        assertThat(select("odd:2", 10)).containsExactly(1, 5, 9);
+        assertThat(select("even:2", 10)).containsExactly(2, 6, 10);
+        assertThat(select("reverse:3", 7)).containsExactly(7, 4, 1);
+    }
+
+    @Test
+    void termsKeepTheirOrderAndRepeats() {
+        assertThat(select("3, 1,3 ,2", 5)).containsExactly(3, 1, 3, 2);
+        assertThat(select(" ODD , Last ", 4)).containsExactly(1, 3, 4);
+        assertThat(select("1,,2,", 5)).containsExactly(1, 2);
+    }
+
+    @Test
+    void evenOnASinglePageSelectsNothing() {
+        assertThatThrownBy(() -> PageSelection.compile("even", 1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("No pages selected: even");
+    }
+
+    @Test
+    void pagesOutsideTheDocumentAreReportedOneBased() {
+        assertThatThrownBy(() -> PageSelection.compile("0", 10))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Page 0 is outside 1-10 (in \"0\").");
+        assertThatThrownBy(() -> PageSelection.compile("1,4-11", 10))
+                .hasMessage("Page 11 is outside 1-10 (in \"4-11\").");
+        assertThatThrownBy(() -> PageSelection.compile("3-:2,12:2", 10))
+                .hasMessage("Page 12 is outside 1-10 (in \"12:2\").");
+    }
+
+    @Test
+    void malformedTerms() {
+        assertThatThrownBy(() -> PageSelection.compile("1,abc", 10))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Invalid page selection: abc");
+        assertThatThrownBy(() -> PageSelection.compile("1-2-3", 10))
+                .hasMessage("Invalid page selection: 1-2-3");
+        assertThatThrownBy(() -> PageSelection.compile("1-5:0", 10))
+                .hasMessage("Invalid step in page selection: 1-5:0");
+        assertThatThrownBy(() -> PageSelection.compile("odd:x", 10))
+                .hasMessage("Invalid step in page selection: odd:x");
+    }
+
+    @Test
+    void emptySelections() {
+        assertThatThrownBy(() -> PageSelection.compile(null, 10)).hasMessage("No pages selected.");
+        assertThatThrownBy(() -> PageSelection.compile("  ", 10)).hasMessage("No pages selected.");
+        assertThatThrownBy(() -> PageSelection.compile(" , ,", 10)).hasMessage("No pages selected:  , ,");
+        assertThatThrownBy(() -> PageSelection.compile("1", 0)).hasMessage("This PDF has no pages.");
+    }
+
+    @Test
+    void selectionLengthIsCapped() {
+        int pageCount = PageSelection.MAX_LENGTH / 2 + 1;
+        assertThat(PageSelection.compile("1-", pageCount).size()).isEqualTo(pageCount);
+        assertThatThrownBy(() -> PageSelection.compile("1-,1-", pageCount))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageStartingWith("Page selection is too long");
+    }
+
+    @Test
+    void setViewAndContiguity() {
+        PageSelection selection = PageSelection.compile("3-5", 10);
+        assertThat(selection.isContiguous()).isTrue();
+        assertThat(selection.contains(2)).isTrue();
+        assertThat(selection.contains(5)).isFalse();
+        assertThat(selection.asSet().cardinality()).isEqualTo(3);
+        assertThat(selection.pageCount()).isEqualTo(10);
+
+        assertThat(PageSelection.compile("5-3", 10).isContiguous()).isFalse();
+        assertThat(PageSelection.compile("1,3", 10).isContiguous()).isFalse();
+        assertThat(PageSelection.compile("1,1", 10).asSet().cardinality()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.pdfbackend;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageFitDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PdfSplitterPlanTest {
+
+    private PDDocument doc;
+
+    @AfterEach
+    void close() throws IOException {
+        if (doc != null) doc.close();
+    }
+
+    private List<PdfSplitter.Part> plan(String spec, int pageCount) throws IOException {
+        doc = new PDDocument();
+        for (int i = 0; i < pageCount; i++) doc.addPage(new PDPage());
+        return PdfSplitter.plan(spec, doc, PageIndex.of(doc));
+    }
+
+    private static List<String> names(List<PdfSplitter.Part> parts) {
+        return parts.stream().map(PdfSplitter.Part::name).toList();
+    }
+
+    @Test
+    void everyNCutsConsecutiveParts() throws IOException {
+        List<PdfSplitter.Part> parts = plan("every 3", 10);
+        assertThat(names(parts)).containsExactly(
+                "part001_pages_1-3.pdf", "part002_pages_4-6.pdf", "part003_pages_7-9.pdf", "part004_page_10.pdf");
+        assertThat(parts.get(3).pages()).containsExactly(9);
+    }
+
+    @Test
+    void everyNSpellings() throws IOException {
+        assertThat(plan("Every:2 pages", 4)).hasSize(2);
+        assertThat(plan("every 5 page", 4)).hasSize(1);
+        assertThatThrownBy(() -> plan("every 0", 4))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Invalid split size: 0");
+    }
+
+    @Test
+    void commaTermsArePartsOfTheirOwn() throws IOException {
+        List<PdfSplitter.Part> parts = plan("1-3,5,7-", 8);
+        assertThat(names(parts)).containsExactly(
+                "part001_pages_1-3.pdf", "part002_page_5.pdf", "part003_pages_7-8.pdf");
+        assertThat(parts.get(2).pages()).containsExactly(6, 7);
+    }
+
+    @Test
+    void semicolonsGroupSeveralTermsIntoOnePart() throws IOException {
+        List<PdfSplitter.Part> parts = plan("1-3,8; 4-7", 8);
+        assertThat(parts).hasSize(2);
+        assertThat(parts.get(0).pages()).containsExactly(0, 1, 2, 7);
+        assertThat(parts.get(0).name()).isEqualTo("part001_pages_1-3_8.pdf");
+        assertThat(parts.get(1).name()).isEqualTo("part002_pages_4-7.pdf");
+    }
+
+    @Test
+    void keywordTermsWork() throws IOException {
+        List<PdfSplitter.Part> parts = plan("odd;even", 5);
+        assertThat(parts.get(0).pages()).containsExactly(0, 2, 4);
+        assertThat(parts.get(1).pages()).containsExactly(1, 3);
+    }
+
+    @Test
+    void rangeErrorsAreOneBased() {
+        assertThatThrownBy(() -> plan("1-3,9", 8))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Page 9 is outside 1-8 (in \"9\").");
+        assertThatThrownBy(() -> plan(";;", 8)).hasMessage("Invalid page range: ;;");
+    }
+
+    @Test
+    void emptySpecOrDocument() {
+        assertThatThrownBy(() -> plan("  ", 3)).hasMessageStartingWith("Please say which pages to split");
+        assertThatThrownBy(() -> plan("1", 0)).hasMessage("This PDF has no pages.");
+    }
+
+    @Test
+    void bookmarksStartParts() throws IOException {
+        doc = new PDDocument();
+        for (int i = 0; i < 10; i++) doc.addPage(new PDPage());
+        PDDocumentOutline outline = new PDDocumentOutline();
+        outline.addLast(bookmark("Chapter: One", doc.getPage(2)));
+        outline.addLast(bookmark("Two", doc.getPage(6)));
+        // Same page as "Two": the first one wins
+        outline.addLast(bookmark("Ignored", doc.getPage(6)));
+        doc.getDocumentCatalog().setDocumentOutline(outline);
+
+        List<PdfSplitter.Part> parts = PdfSplitter.plan("bookmarks", doc, PageIndex.of(doc));
+        assertThat(names(parts)).containsExactly(
+                "part001_Start.pdf", "part002_Chapter_ One.pdf", "part003_Two.pdf");
+        assertThat(parts.get(0).pages()).containsExactly(0, 1);
+        assertThat(parts.get(1).pages()).containsExactly(2, 3, 4, 5);
+        assertThat(parts.get(2).pages()).containsExactly(6, 7, 8, 9);
+    }
+
+    @Test
+    void noBookmarksToSplitAt() {
+        assertThatThrownBy(() -> plan("at bookmarks", 3))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("This PDF has no bookmarks to split at.");
+    }
+
+    private static PDOutlineItem bookmark(String title, PDPage page) {
+        PDPageFitDestination destination = new PDPageFitDestination();
+        destination.setPage(page);
+        PDOutlineItem item = new PDOutlineItem();
+        item.setTitle(title);
+        item.setDestination(destination);
+        return item;
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.pdfbackend;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimiterTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    // 10 tokens, refilled at 6 a minute (one every 10 seconds); "convert" costs 2
+    private static RateLimiter limiter(int maxClients) {
+        return new RateLimiter(new RateLimitProperties(10, 6, 0.25, 1, Map.of("convert", 2.0),
+                maxClients, Duration.ofSeconds(60)));
+    }
+
+    private static int allowed(RateLimiter limiter, String client, String endpoint, int attempts, long now) {
+        int allowed = 0;
+        for (int i = 0; i < attempts; i++) {
+            if (limiter.allowRequest(client, endpoint, 0, now)) allowed++;
+        }
+        return allowed;
+    }
+
+    @Test
+    void burstUpToCapacityThenRefusal() {
+        RateLimiter limiter = limiter(100);
+        assertThat(allowed(limiter, "a", "split", 15, 0)).isEqualTo(10);
+        // Other clients have buckets of their own
+        assertThat(allowed(limiter, "b", "split", 1, 0)).isEqualTo(1);
+    }
+
+    @Test
+    void refillIsProportionalToElapsedTime() {
+        RateLimiter limiter = limiter(100);
+        allowed(limiter, "a", "split", 10, 0);
+
+        assertThat(limiter.allowRequest("a", "split", 0, 9 * SECOND)).isFalse();
+        // 10s is one token; the refused request above doesn't cost anything
+        assertThat(allowed(limiter, "a", "split", 3, 10 * SECOND)).isEqualTo(1);
+        assertThat(allowed(limiter, "a", "split", 5, 40 * SECOND)).isEqualTo(3);
+    }
+
+    @Test
+    void refillStopsAtCapacity() {
+        RateLimiter limiter = limiter(100);
+        allowed(limiter, "a", "split", 10, 0);
+        assertThat(allowed(limiter, "a", "split", 20, 3600 * SECOND)).isEqualTo(10);
+    }
+
+    @Test
+    void costsComeFromTheEndpointAndUploadSize() {
+        RateLimiter limiter = limiter(100);
+        assertThat(allowed(limiter, "a", "convert", 10, 0)).isEqualTo(5);
+
+        // 1 + 0.25 per MB: 4 MB is 2 tokens
+        assertThat(limiter.allowRequest("b", "split", 4L * 1024 * 1024, 0)).isTrue();
+        assertThat(allowed(limiter, "b", "split", 10, 0)).isEqualTo(8);
+
+        // Never more than a full bucket, so a huge upload still gets through once
+        assertThat(limiter.allowRequest("c", "split", 1L << 40, 0)).isTrue();
+        assertThat(limiter.allowRequest("c", "split", 0, 0)).isFalse();
+    }
+
+    @Test
+    void sweepDropsBucketsThatWouldBeFullAgain() {
+        RateLimiter limiter = limiter(100);
+        limiter.allowRequest("idle", "split", 0, 0);
+        limiter.allowRequest("active", "split", 0, 90 * SECOND);
+
+        // An empty bucket is full again after 100s; "active" was last seen 11s ago
+        limiter.evictIdle(101 * SECOND);
+        assertThat(limiter.trackedClients()).isEqualTo(1);
+        assertThat(limiter.evictions()).isEqualTo(1);
+    }
+
+    @Test
+    void sweepKeepsTheMostRecentlySeenPastMaxClients() {
+        RateLimiter limiter = limiter(2);
+        for (int i = 0; i < 5; i++) limiter.allowRequest("c" + i, "split", 0, i * SECOND);
+        // c0 was seen again, so it's one of the two most recent
+        allowed(limiter, "c0", "split", 9, 5 * SECOND);
+        assertThat(limiter.trackedClients()).isEqualTo(5);
+
+        limiter.evictIdle(6 * SECOND);
+        assertThat(limiter.trackedClients()).isEqualTo(2);
+        assertThat(limiter.evictions()).isEqualTo(3);
+        // c0 kept its nearly empty bucket
+        assertThat(limiter.allowRequest("c0", "split", 0, 6 * SECOND)).isFalse();
+    }
+}